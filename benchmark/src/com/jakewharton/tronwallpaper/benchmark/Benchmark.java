@@ -0,0 +1,795 @@
+package com.jakewharton.tronwallpaper.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.management.CompilationMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import com.jakewharton.tronwallpaper.core.ArenaGrid;
+import com.jakewharton.tronwallpaper.core.FramebufferRenderer;
+import com.jakewharton.tronwallpaper.core.Layout;
+import com.jakewharton.tronwallpaper.core.Recording;
+import com.jakewharton.tronwallpaper.core.Rewind;
+import com.jakewharton.tronwallpaper.core.Scene;
+import com.jakewharton.tronwallpaper.core.Simulation;
+import com.jakewharton.tronwallpaper.core.TickEvents;
+
+/**
+ * Headless benchmarks of the simulation core which run on a plain JVM.
+ * 
+ * Usage: <code>java com.jakewharton.tronwallpaper.benchmark.Benchmark [name...]</code>
+ * 
+ * @author Jake Wharton
+ */
+public class Benchmark {
+	/**
+	 * Number of untimed iterations before measuring.
+	 */
+	private static final int WARMUP = 3;
+	
+	/**
+	 * Number of timed iterations.
+	 */
+	private static final int ITERATIONS = 5;
+	
+	/**
+	 * Number of nanoseconds in a millisecond.
+	 */
+	private static final double NANOSECONDS_IN_MILLISECOND = 1000000.0;
+	
+	/**
+	 * Number of nanoseconds in a second.
+	 */
+	private static final double NANOSECONDS_IN_SECOND = 1000000000.0;
+	
+	
+	
+	/**
+	 * Run the named benchmarks, or all of them when no names are given.
+	 * 
+	 * @param args Benchmark names.
+	 */
+	public static void main(final String[] args) {
+		final boolean all = (args.length == 0);
+		if (all || Benchmark.contains(args, "render")) {
+			Benchmark.render(Benchmark.defaultLayout(), 8);
+			Benchmark.render(Benchmark.maxLayout(), 4);
+		}
+		if (all || Benchmark.contains(args, "tick")) {
+			Benchmark.tick(Benchmark.defaultLayout());
+			Benchmark.tick(Benchmark.maxLayout());
+		}
+		if (all || Benchmark.contains(args, "arena")) {
+			Benchmark.arena(Benchmark.defaultLayout());
+			Benchmark.arena(Benchmark.maxLayout());
+		}
+		if (all || Benchmark.contains(args, "arenas")) {
+			Benchmark.arenas(Benchmark.maxLayout());
+		}
+		if (all || Benchmark.contains(args, "speed")) {
+			Benchmark.speed(Benchmark.defaultLayout());
+			Benchmark.speed(Benchmark.maxLayout());
+		}
+		if (all || Benchmark.contains(args, "endless")) {
+			Benchmark.endless(Benchmark.defaultLayout());
+			Benchmark.endless(Benchmark.maxLayout());
+		}
+		if (all || Benchmark.contains(args, "dense")) {
+			Benchmark.dense(Benchmark.denseLayout(), Simulation.MIN_CYCLES);
+			Benchmark.dense(Benchmark.denseLayout(), Simulation.MAX_CYCLES);
+		}
+		if (all || Benchmark.contains(args, "rewind")) {
+			Benchmark.rewind(Benchmark.maxLayout());
+		}
+		if (all || Benchmark.contains(args, "snapshot")) {
+			Benchmark.snapshot(Benchmark.maxLayout());
+			Benchmark.snapshot(Benchmark.denseLayout());
+		}
+		if (all || Benchmark.contains(args, "replay")) {
+			Benchmark.replay(Benchmark.maxLayout());
+			Benchmark.replay(Benchmark.denseLayout());
+		}
+		if (all || Benchmark.contains(args, "events")) {
+			Benchmark.events(Benchmark.maxLayout(), 4);
+			Benchmark.events(Benchmark.denseLayout(), 1);
+		}
+		if (all || Benchmark.contains(args, "ai")) {
+			Benchmark.ai(Benchmark.maxLayout(), Simulation.MIN_CYCLES, Simulation.AI_TERRITORY, 0, 50);
+			Benchmark.ai(Benchmark.maxLayout(), Simulation.MAX_CYCLES, Simulation.AI_TERRITORY, 0, 5);
+			Benchmark.ai(Benchmark.maxLayout(), Simulation.MIN_CYCLES, Simulation.AI_MINIMAX, 2000000, 5);
+			Benchmark.ai(Benchmark.maxLayout(), Simulation.MAX_CYCLES, Simulation.AI_MINIMAX, 10000000, 2);
+			Benchmark.ai(Benchmark.maxLayout(), Simulation.MIN_CYCLES, Simulation.AI_MCTS, 2000000, 5);
+			Benchmark.ai(Benchmark.maxLayout(), Simulation.MAX_CYCLES, Simulation.AI_MCTS, 10000000, 2);
+		}
+		if (all || Benchmark.contains(args, "checksum")) {
+			Benchmark.checksum(Benchmark.defaultLayout());
+			Benchmark.checksum(Benchmark.maxLayout());
+		}
+	}
+	
+	
+	
+	/**
+	 * Default launcher layout: 4x4 icons.
+	 * 
+	 * @return Layout.
+	 */
+	/*package*/static Layout defaultLayout() {
+		return new Layout(4, 4, 21, 15, new ArrayList<Layout.Widget>());
+	}
+	
+	/**
+	 * Largest launcher layout: 8x8 icons at maximum spacing.
+	 * 
+	 * @return Layout.
+	 */
+	/*package*/static Layout maxLayout() {
+		return new Layout(8, 8, 30, 21, new ArrayList<Layout.Widget>());
+	}
+	
+	/**
+	 * Largest launcher layout at the finest resolution: roughly 1600x2200 cells.
+	 * 
+	 * @return Layout.
+	 */
+	/*package*/static Layout denseLayout() {
+		return new Layout(8, 8, 30, 21, Layout.MAX_RESOLUTION, new ArrayList<Layout.Widget>());
+	}
+	
+	/**
+	 * Measure the time to draw a full frame with the software framebuffer.
+	 * 
+	 * @param layout Layout to build the board from.
+	 * @param cellSize Width and height (in pixels) of a single cell.
+	 */
+	private static void render(final Layout layout, final int cellSize) {
+		final Simulation simulation = new Simulation(layout, Simulation.MIN_CYCLES, 0);
+		simulation.newBoard();
+		//Grow some trails to draw
+		for (int i = 0; i < 1000; i++) {
+			simulation.tick();
+		}
+		
+		final Scene scene = new Scene();
+		scene.setWallsColor(0xff6161a1);
+		scene.setIsDisplayingWalls(true);
+		
+		final FramebufferRenderer renderer = new FramebufferRenderer(simulation.getCellsWide(), simulation.getCellsTall(), cellSize);
+		final int frames = 1000;
+		long best = Long.MAX_VALUE;
+		for (int iteration = 0; iteration < Benchmark.WARMUP + Benchmark.ITERATIONS; iteration++) {
+			final long start = System.nanoTime();
+			for (int frame = 0; frame < frames; frame++) {
+				renderer.clear(0xff060d11);
+				scene.draw(simulation, renderer);
+			}
+			final long elapsed = System.nanoTime() - start;
+			if (iteration >= Benchmark.WARMUP) {
+				best = Math.min(best, elapsed);
+			}
+		}
+		
+		//Hash the output so a change in pixels is visible
+		int hash = 0;
+		for (final int pixel : renderer.getPixels()) {
+			hash = (hash * 31) + pixel;
+		}
+		
+		System.out.println(String.format("render %dx%d px (%dx%d cells, %d trail cells): %.3f ms/frame, pixel hash %08x",
+				renderer.getWidth(), renderer.getHeight(), simulation.getCellsWide(), simulation.getCellsTall(),
+				simulation.getTrailLength(Simulation.PLAYER) + simulation.getTrailLength(Simulation.OPPONENT),
+				best / Benchmark.NANOSECONDS_IN_MILLISECOND / frames, hash));
+	}
+	
+	/**
+	 * Measure raw simulation throughput using the batch tick API.
+	 * 
+	 * @param layout Layout to build the board from.
+	 */
+	private static void tick(final Layout layout) {
+		final int ticks = 10000000;
+		final Simulation simulation = new Simulation(layout, Simulation.MIN_CYCLES, 0);
+		simulation.newBoard();
+		
+		long best = Long.MAX_VALUE;
+		int rounds = 0;
+		for (int iteration = 0; iteration < Benchmark.WARMUP + Benchmark.ITERATIONS; iteration++) {
+			final long start = System.nanoTime();
+			rounds = simulation.advance(ticks);
+			final long elapsed = System.nanoTime() - start;
+			if (iteration >= Benchmark.WARMUP) {
+				best = Math.min(best, elapsed);
+			}
+		}
+		
+		System.out.println(String.format("tick %dx%d icons: %.1f million ticks/s, %d rounds per %d ticks",
+				layout.getIconCols(), layout.getIconRows(), ticks / (best / Benchmark.NANOSECONDS_IN_MILLISECOND) / 1000.0, rounds, ticks));
+	}
+	
+	/**
+	 * Measure how the cost of a tick grows with the number of cycles.
+	 * 
+	 * @param layout Layout to build the board from.
+	 */
+	private static void arena(final Layout layout) {
+		final int ticks = 2000000;
+		for (int cycles = Simulation.MIN_CYCLES; cycles <= Simulation.MAX_CYCLES; cycles *= 2) {
+			final Simulation simulation = new Simulation(layout, cycles, 0);
+			simulation.newBoard();
+			
+			long best = Long.MAX_VALUE;
+			int rounds = 0;
+			for (int iteration = 0; iteration < Benchmark.WARMUP + Benchmark.ITERATIONS; iteration++) {
+				final long start = System.nanoTime();
+				rounds = simulation.advance(ticks);
+				final long elapsed = System.nanoTime() - start;
+				if (iteration >= Benchmark.WARMUP) {
+					best = Math.min(best, elapsed);
+				}
+			}
+			
+			System.out.println(String.format("arena %dx%d icons, %2d cycles: %.1f ns/tick, %d rounds per %d ticks",
+					layout.getIconCols(), layout.getIconRows(), cycles, (double)best / ticks, rounds, ticks));
+		}
+	}
+	
+	/**
+	 * Compare stepping a grid of independent arenas on one thread against
+	 * stepping them on a worker per core.
+	 * 
+	 * @param layout Layout to split into arenas.
+	 */
+	private static void arenas(final Layout layout) {
+		final int ticks = 200000;
+		final int cycles = 4;
+		final int cores = Runtime.getRuntime().availableProcessors();
+		for (int tiles = 1; tiles <= 4; tiles++) {
+			final double serial = Benchmark.arenas(layout, tiles, cycles, 1, ticks);
+			final double parallel = Benchmark.arenas(layout, tiles, cycles, cores, ticks);
+			System.out.println(String.format("arenas %dx%d icons, %dx%d tiles, %d cycles each: %.1f ns/tick on 1 thread, %.1f ns/tick on %d threads (%.2fx)",
+					layout.getIconCols(), layout.getIconRows(), tiles, tiles, cycles, serial, parallel, cores, serial / parallel));
+		}
+	}
+	
+	/**
+	 * Measure the time to advance every arena of a grid by one tick.
+	 * 
+	 * @param layout Layout to split into arenas.
+	 * @param tiles Number of tiles on each side.
+	 * @param cycles Number of cycles in each arena.
+	 * @param threads Number of worker threads.
+	 * @param ticks Number of ticks to measure, one batch per tick.
+	 * @return Nanoseconds per tick.
+	 */
+	private static double arenas(final Layout layout, final int tiles, final int cycles, final int threads, final int ticks) {
+		final ArenaGrid grid = new ArenaGrid(layout, tiles, cycles, 0, threads);
+		grid.newBoard();
+		
+		long best = Long.MAX_VALUE;
+		for (int iteration = 0; iteration < Benchmark.WARMUP + Benchmark.ITERATIONS; iteration++) {
+			final long start = System.nanoTime();
+			for (int i = 0; i < ticks; i++) {
+				grid.tick();
+			}
+			final long elapsed = System.nanoTime() - start;
+			if (iteration >= Benchmark.WARMUP) {
+				best = Math.min(best, elapsed);
+			}
+		}
+		grid.shutdown();
+		return (double)best / ticks;
+	}
+	
+	/**
+	 * Measure tick cost and the number of moves made per tick when the
+	 * opponent is faster than the player.
+	 * 
+	 * @param layout Layout to build the board from.
+	 */
+	private static void speed(final Layout layout) {
+		final int ticks = 2000000;
+		final float[] speeds = { 1.0f, 1.5f, 2.0f, 0.5f };
+		for (final float speed : speeds) {
+			final Simulation simulation = new Simulation(layout, Simulation.MIN_CYCLES, 0);
+			simulation.setSpeed(Simulation.OPPONENT, speed);
+			simulation.newBoard();
+			
+			long best = Long.MAX_VALUE;
+			for (int iteration = 0; iteration < Benchmark.WARMUP + Benchmark.ITERATIONS; iteration++) {
+				final long start = System.nanoTime();
+				simulation.advance(ticks);
+				final long elapsed = System.nanoTime() - start;
+				if (iteration >= Benchmark.WARMUP) {
+					best = Math.min(best, elapsed);
+				}
+			}
+			
+			System.out.println(String.format("speed %dx%d icons, opponent %.1fx: %.1f ns/tick",
+					layout.getIconCols(), layout.getIconRows(), speed, (double)best / ticks));
+		}
+	}
+	
+	/**
+	 * Measure tick cost with bounded trails, where every tick also frees a
+	 * cell, and make sure the longest trail never exceeds the bound.
+	 * 
+	 * @param layout Layout to build the board from.
+	 */
+	private static void endless(final Layout layout) {
+		final int ticks = 10000000;
+		final int maxTrailLength = 150;
+		final Simulation simulation = new Simulation(layout, Simulation.MIN_CYCLES, 0);
+		simulation.setMaxTrailLength(maxTrailLength);
+		simulation.newBoard();
+		
+		long best = Long.MAX_VALUE;
+		int rounds = 0;
+		for (int iteration = 0; iteration < Benchmark.WARMUP + Benchmark.ITERATIONS; iteration++) {
+			final long start = System.nanoTime();
+			rounds = simulation.advance(ticks);
+			final long elapsed = System.nanoTime() - start;
+			if (iteration >= Benchmark.WARMUP) {
+				best = Math.min(best, elapsed);
+			}
+		}
+		
+		int longest = 0;
+		for (int cycle = 0; cycle < simulation.getCycleCount(); cycle++) {
+			longest = Math.max(longest, simulation.getTrailLength(cycle));
+		}
+		
+		System.out.println(String.format("endless %dx%d icons, %d cell trails: %.1f million ticks/s, %d rounds per %d ticks, longest trail %d",
+				layout.getIconCols(), layout.getIconRows(), maxTrailLength, ticks / (best / Benchmark.NANOSECONDS_IN_MILLISECOND) / 1000.0, rounds, ticks, longest));
+	}
+	
+	/**
+	 * Measure whole frames (a tick plus a redraw of every trail at one pixel
+	 * per cell) and new boards on a very fine board, against a budget of 50
+	 * frames per second. Both the mean and the worst frame must fit.
+	 * 
+	 * The tick of the worst frame is reported with it, as is the worst tick
+	 * which ended a round: releasing every trail of a dense round and
+	 * starting the next is the most work a single tick does. A worst frame
+	 * whose tick is cheap was spent clearing and drawing the framebuffer.
+	 * 
+	 * @param layout Layout to build the board from.
+	 * @param cycles Number of cycles.
+	 */
+	private static void dense(final Layout layout, final int cycles) {
+		final int frames = 2000;
+		final int warmupRounds = 20;
+		final double budget = 1000.0 / 50;
+		final Simulation simulation = new Simulation(layout, cycles, 0);
+		simulation.newBoard();
+		
+		//A round only ends every few thousand ticks, too rarely for the frame
+		//warmup to compile that path before it is timed
+		for (int round = 0; round < warmupRounds;) {
+			if (simulation.tick()) {
+				round += 1;
+			}
+		}
+		
+		final Scene scene = new Scene();
+		scene.setWallsColor(0xff6161a1);
+		scene.setIsDisplayingWalls(true);
+		final FramebufferRenderer renderer = new FramebufferRenderer(simulation.getCellsWide(), simulation.getCellsTall(), 1);
+		
+		long best = Long.MAX_VALUE;
+		long worst = 0;
+		long worstTick = 0;
+		long worstRound = 0;
+		int rounds = 0;
+		int trail = 0;
+		for (int iteration = 0; iteration < Benchmark.WARMUP + Benchmark.ITERATIONS; iteration++) {
+			final long start = System.nanoTime();
+			for (int frame = 0; frame < frames; frame++) {
+				final long frameStart = System.nanoTime();
+				final boolean isRoundOver = simulation.tick();
+				final long tickEnd = System.nanoTime();
+				renderer.clear(0xff060d11);
+				scene.draw(simulation, renderer);
+				if (iteration >= Benchmark.WARMUP) {
+					final long elapsed = System.nanoTime() - frameStart;
+					if (elapsed > worst) {
+						worst = elapsed;
+						worstTick = tickEnd - frameStart;
+					}
+					if (isRoundOver) {
+						worstRound = Math.max(worstRound, tickEnd - frameStart);
+						rounds += 1;
+					}
+				}
+			}
+			final long elapsed = System.nanoTime() - start;
+			if (iteration >= Benchmark.WARMUP) {
+				best = Math.min(best, elapsed);
+			}
+		}
+		for (int cycle = 0; cycle < cycles; cycle++) {
+			trail += simulation.getTrailLength(cycle);
+		}
+		
+		long board = Long.MAX_VALUE;
+		for (int iteration = 0; iteration < Benchmark.WARMUP + Benchmark.ITERATIONS; iteration++) {
+			final long start = System.nanoTime();
+			simulation.newBoard();
+			final long elapsed = System.nanoTime() - start;
+			if (iteration >= Benchmark.WARMUP) {
+				board = Math.min(board, elapsed);
+			}
+		}
+		
+		final double frame = best / Benchmark.NANOSECONDS_IN_MILLISECOND / frames;
+		final double worstFrame = worst / Benchmark.NANOSECONDS_IN_MILLISECOND;
+		System.out.println(String.format("dense %dx%d cells, %2d cycles (%d trail cells at end): %.3f ms/frame (%.0f fps), worst %.3f ms (tick %.3f ms), worst of %d round-ending ticks %.3f ms, new board %.1f ms%s%s",
+				layout.getCellsWide(), layout.getCellsTall(), cycles, trail, frame, 1000.0 / frame, worstFrame, worstTick / Benchmark.NANOSECONDS_IN_MILLISECOND,
+				rounds, worstRound / Benchmark.NANOSECONDS_IN_MILLISECOND, board / Benchmark.NANOSECONDS_IN_MILLISECOND,
+				(frame <= budget) ? "" : " OVER 50 FPS BUDGET", (worstFrame <= budget) ? "" : " WORST FRAME OVER 50 FPS BUDGET"));
+	}
+	
+	/**
+	 * Measure the cost of recording the most recent moves for an instant
+	 * replay, with every cycle riding.
+	 * 
+	 * @param layout Layout to build the board from.
+	 */
+	private static void rewind(final Layout layout) {
+		final int ticks = 2000000;
+		final int rewindTicks = 75;
+		final double[] costs = new double[2];
+		for (int run = 0; run < costs.length; run++) {
+			final Simulation simulation = new Simulation(layout, Simulation.MAX_CYCLES, 0);
+			if (run == 1) {
+				simulation.setRewind(new Rewind(Simulation.MAX_CYCLES, rewindTicks));
+			}
+			simulation.newBoard();
+			
+			long best = Long.MAX_VALUE;
+			for (int iteration = 0; iteration < Benchmark.WARMUP + Benchmark.ITERATIONS; iteration++) {
+				final long start = System.nanoTime();
+				simulation.advance(ticks);
+				final long elapsed = System.nanoTime() - start;
+				if (iteration >= Benchmark.WARMUP) {
+					best = Math.min(best, elapsed);
+				}
+			}
+			costs[run] = (double)best / ticks;
+		}
+		
+		//Tick starts are longs, moves are an int cell and a packed byte
+		final int moves = rewindTicks * Simulation.MAX_CYCLES * (int)Math.ceil(Simulation.MAX_SPEED);
+		System.out.println(String.format("rewind %dx%d icons, %d cycles, %d ticks: %.1f ns/tick without, %.1f ns/tick recording, %d bytes",
+				layout.getIconCols(), layout.getIconRows(), Simulation.MAX_CYCLES, rewindTicks, costs[0], costs[1], (rewindTicks * 8) + (moves * 5)));
+	}
+	
+	/**
+	 * Measure saving and restoring a round in progress with every cycle, and
+	 * make sure the restored round plays out the same until it ends.
+	 * 
+	 * @param layout Layout to build the board from.
+	 */
+	private static void snapshot(final Layout layout) {
+		final Simulation simulation = new Simulation(layout, Simulation.MAX_CYCLES, 0);
+		simulation.setIsChecksumming(true);
+		simulation.newBoard();
+		//Play until the round is as long as it is going to get
+		while (!simulation.tick()) {
+			//Keep going
+		}
+		while (Benchmark.countAlive(simulation) > 2) {
+			simulation.tick();
+		}
+		int trail = 0;
+		for (int cycle = 0; cycle < simulation.getCycleCount(); cycle++) {
+			trail += simulation.getTrailLength(cycle);
+		}
+		
+		final Simulation restored = new Simulation(layout, Simulation.MAX_CYCLES, 1);
+		restored.setIsChecksumming(true);
+		restored.newBoard();
+		
+		byte[] snapshot = null;
+		long write = Long.MAX_VALUE;
+		long read = Long.MAX_VALUE;
+		try {
+			for (int iteration = 0; iteration < Benchmark.WARMUP + Benchmark.ITERATIONS; iteration++) {
+				final long start = System.nanoTime();
+				final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				simulation.writeSnapshot(new DataOutputStream(bytes));
+				snapshot = bytes.toByteArray();
+				final long middle = System.nanoTime();
+				restored.readSnapshot(new DataInputStream(new ByteArrayInputStream(snapshot)));
+				final long end = System.nanoTime();
+				if (iteration >= Benchmark.WARMUP) {
+					write = Math.min(write, middle - start);
+					read = Math.min(read, end - middle);
+				}
+			}
+		} catch (final IOException e) {
+			throw new IllegalStateException(e);
+		}
+		
+		//Both play out identically until the next round picks its starting cells
+		boolean isSame = (simulation.getChecksum() == restored.getChecksum());
+		while (isSame && !simulation.tick()) {
+			restored.tick();
+			isSame = (simulation.getChecksum() == restored.getChecksum());
+		}
+		
+		System.out.println(String.format("snapshot %dx%d cells, %d cycles, %d trail cells: %d bytes, write %.3f ms, restore %.3f ms%s",
+				layout.getCellsWide(), layout.getCellsTall(), Simulation.MAX_CYCLES, trail, snapshot.length,
+				write / Benchmark.NANOSECONDS_IN_MILLISECOND, read / Benchmark.NANOSECONDS_IN_MILLISECOND, isSame ? "" : " RESTORED ROUND DIFFERS"));
+	}
+	
+	/**
+	 * Measure the size of a recorded round and the cost of playing it back
+	 * through the same tick path compared to playing it live.
+	 * 
+	 * @param layout Layout to build the board from.
+	 */
+	private static void replay(final Layout layout) {
+		//Rounds are deterministic so the live one is rebuilt from the seed on every iteration
+		Simulation simulation = null;
+		long live = Long.MAX_VALUE;
+		for (int iteration = 0; iteration < Benchmark.WARMUP + Benchmark.ITERATIONS; iteration++) {
+			simulation = new Simulation(layout, Simulation.MIN_CYCLES, 0);
+			simulation.setIsRecording(true);
+			simulation.setIsHoldingRounds(true);
+			simulation.newBoard();
+			final long start = System.nanoTime();
+			while (!simulation.tick()) {
+				//Keep going
+			}
+			final long elapsed = System.nanoTime() - start;
+			if (iteration >= Benchmark.WARMUP) {
+				live = Math.min(live, elapsed);
+			}
+		}
+		
+		byte[] bytes = null;
+		Recording recording = null;
+		try {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			simulation.getLastRecording().write(new DataOutputStream(out));
+			bytes = out.toByteArray();
+			recording = Recording.read(new DataInputStream(new ByteArrayInputStream(bytes)));
+		} catch (final IOException e) {
+			throw new IllegalStateException(e);
+		}
+		
+		final Simulation playback = new Simulation(layout, Simulation.MIN_CYCLES, 1);
+		playback.setIsHoldingRounds(true);
+		playback.newBoard();
+		long best = Long.MAX_VALUE;
+		for (int iteration = 0; iteration < Benchmark.WARMUP + Benchmark.ITERATIONS; iteration++) {
+			playback.play(recording);
+			final long start = System.nanoTime();
+			while (!playback.tick()) {
+				//Keep going
+			}
+			final long elapsed = System.nanoTime() - start;
+			if (iteration >= Benchmark.WARMUP) {
+				best = Math.min(best, elapsed);
+			}
+		}
+		
+		boolean isSame = true;
+		for (int cycle = 0; cycle < Simulation.MIN_CYCLES; cycle++) {
+			isSame &= (simulation.isAlive(cycle) == playback.isAlive(cycle)) && (simulation.getTrailLength(cycle) == playback.getTrailLength(cycle));
+			for (int i = 0; isSame && (i < simulation.getTrailLength(cycle)); i++) {
+				isSame = (simulation.getTrailCell(cycle, i) == playback.getTrailCell(cycle, i));
+			}
+		}
+		
+		System.out.println(String.format("replay %dx%d cells, %d cycles, %d ticks: %d bytes, live %.1f ns/tick, playback %.1f ns/tick%s",
+				layout.getCellsWide(), layout.getCellsTall(), Simulation.MIN_CYCLES, recording.getTicks(), bytes.length,
+				(double)live / recording.getTicks(), (double)best / recording.getTicks(), isSame ? "" : " PLAYBACK DIFFERS"));
+	}
+	
+	/**
+	 * Measure drawing every frame in full against drawing only the cells
+	 * which changed in each tick onto the previous frame, with every cycle
+	 * riding in endless mode so cells are both claimed and released.
+	 * 
+	 * @param layout Layout to build the board from.
+	 * @param cellSize Width and height (in pixels) of a single cell.
+	 */
+	private static void events(final Layout layout, final int cellSize) {
+		final int frames = 500;
+		final int background = 0xff060d11;
+		final Scene scene = new Scene();
+		final FramebufferRenderer renderer = new FramebufferRenderer(layout.getCellsWide(), layout.getCellsTall(), cellSize);
+		
+		final double[] costs = new double[2];
+		int[] pixels = null;
+		for (int run = 0; run < costs.length; run++) {
+			final boolean isIncremental = (run == 1);
+			long best = Long.MAX_VALUE;
+			for (int iteration = 0; iteration < Benchmark.WARMUP + Benchmark.ITERATIONS; iteration++) {
+				//Both runs see the same ticks
+				final Simulation simulation = new Simulation(layout, Simulation.MAX_CYCLES, 0);
+				simulation.setMaxTrailLength(100);
+				simulation.setEvents(isIncremental ? new TickEvents(Simulation.MAX_CYCLES) : null);
+				simulation.newBoard();
+				long drawn = -1;
+				
+				final long start = System.nanoTime();
+				for (int frame = 0; frame < frames; frame++) {
+					simulation.tick();
+					final TickEvents events = simulation.getEvents();
+					if (!isIncremental || (events.getSequence() != (drawn + 1)) || !scene.drawEvents(simulation, background, renderer)) {
+						renderer.clear(background);
+						scene.draw(simulation, renderer);
+					}
+					if (isIncremental) {
+						drawn = events.getSequence();
+					}
+				}
+				final long elapsed = System.nanoTime() - start;
+				if (iteration >= Benchmark.WARMUP) {
+					best = Math.min(best, elapsed);
+				}
+			}
+			costs[run] = (double)best / frames;
+			
+			if (pixels == null) {
+				pixels = renderer.getPixels().clone();
+			}
+		}
+		
+		System.out.println(String.format("events %dx%d px, %d cycles: full %.3f ms/frame, changes only %.3f ms/frame%s",
+				renderer.getWidth(), renderer.getHeight(), Simulation.MAX_CYCLES,
+				costs[0] / Benchmark.NANOSECONDS_IN_MILLISECOND, costs[1] / Benchmark.NANOSECONDS_IN_MILLISECOND,
+				Arrays.equals(pixels, renderer.getPixels()) ? "" : " FRAMES DIFFER"));
+	}
+	
+	/**
+	 * Measure the cost of the opponents' AI and how often it beats a
+	 * wandering player, against a budget of 50 frames per second for the
+	 * worst tick.
+	 * 
+	 * Rounds are played untimed until one passes without the JIT compiling
+	 * anything: the worst tick of a search which is still being compiled is
+	 * several times that of a settled one.
+	 * 
+	 * @param layout Layout to build the board from.
+	 * @param cycles Number of light cycles.
+	 * @param ai AI driving the opponents.
+	 * @param budget Time searching AIs may think for in a tick, in nanoseconds.
+	 * @param rounds Number of rounds to measure.
+	 */
+	private static void ai(final Layout layout, final int cycles, final int ai, final long budget, final int rounds) {
+		final int minWarmupRounds = 2;
+		final int maxWarmupRounds = 20;
+		final double frameBudget = 1000.0 / 50;
+		final Simulation simulation = new Simulation(layout, cycles, 0);
+		simulation.setAiBudget(budget);
+		for (int cycle = Simulation.OPPONENT; cycle < cycles; cycle++) {
+			simulation.setAi(cycle, ai);
+		}
+		simulation.setIsHoldingRounds(true);
+		simulation.newBoard();
+		
+		int warmupRounds = 0;
+		long compilationTime = Benchmark.getCompilationTime();
+		boolean isSettled = false;
+		while ((warmupRounds < minWarmupRounds) || (!isSettled && (warmupRounds < maxWarmupRounds))) {
+			boolean isOver = false;
+			while (!isOver) {
+				isOver = simulation.tick();
+			}
+			simulation.newGame();
+			warmupRounds += 1;
+			
+			final long previousCompilationTime = compilationTime;
+			compilationTime = Benchmark.getCompilationTime();
+			isSettled = (compilationTime == previousCompilationTime);
+		}
+		
+		long ticks = 0;
+		long total = 0;
+		long worst = 0;
+		int wins = 0;
+		long playouts = simulation.getPlayoutCount();
+		long playoutTime = simulation.getPlayoutTime();
+		for (int round = 0; round < rounds; round++) {
+			boolean isOver = false;
+			while (!isOver) {
+				final long start = System.nanoTime();
+				isOver = simulation.tick();
+				final long elapsed = System.nanoTime() - start;
+				ticks += 1;
+				total += elapsed;
+				worst = Math.max(worst, elapsed);
+			}
+			if (!simulation.isAlive(Simulation.PLAYER)) {
+				wins += 1;
+			}
+			simulation.newGame();
+		}
+		
+		playouts = simulation.getPlayoutCount() - playouts;
+		playoutTime = simulation.getPlayoutTime() - playoutTime;
+		final double worstTick = worst / Benchmark.NANOSECONDS_IN_MILLISECOND;
+		System.out.println(String.format("ai %d, %dx%d cells, %d cycles, %.1f ms budget: %.3f ms/tick mean, %.3f ms/tick worst, opponents won %d%% of %d rounds after %d warmup rounds%s%s",
+				ai, layout.getCellsWide(), layout.getCellsTall(), cycles, budget / Benchmark.NANOSECONDS_IN_MILLISECOND,
+				total / Benchmark.NANOSECONDS_IN_MILLISECOND / ticks, worstTick,
+				(wins * 100) / rounds, rounds, warmupRounds,
+				(playoutTime > 0) ? String.format(", %.0f playouts/s", playouts * Benchmark.NANOSECONDS_IN_SECOND / playoutTime) : "",
+				(worstTick <= frameBudget) ? "" : " WORST TICK OVER 50 FPS BUDGET"));
+	}
+	
+	/**
+	 * Get the total time the JIT has spent compiling.
+	 * 
+	 * @return Time, in milliseconds, or zero if the JVM does not report it.
+	 */
+	private static long getCompilationTime() {
+		final CompilationMXBean compiler = ManagementFactory.getCompilationMXBean();
+		if ((compiler == null) || !compiler.isCompilationTimeMonitoringSupported()) {
+			return 0;
+		}
+		return compiler.getTotalCompilationTime();
+	}
+	
+	/**
+	 * Print the state checksum of a fixed-seed simulation. A change in the
+	 * printed value means the simulation's behavior has drifted.
+	 * 
+	 * @param layout Layout to build the board from.
+	 */
+	private static void checksum(final Layout layout) {
+		final int ticks = 1000000;
+		final long[] checksums = new long[2];
+		for (int run = 0; run < checksums.length; run++) {
+			final Simulation simulation = new Simulation(layout, Simulation.MIN_CYCLES, 0);
+			simulation.setIsChecksumming(true);
+			simulation.newBoard();
+			for (int i = 0; i < ticks; i++) {
+				simulation.tick();
+			}
+			checksums[run] = simulation.getChecksum();
+		}
+		
+		System.out.println(String.format("checksum %dx%d icons, seed 0, %d ticks: %016x%s",
+				layout.getIconCols(), layout.getIconRows(), ticks, checksums[0],
+				(checksums[0] == checksums[1]) ? "" : " NOT DETERMINISTIC (" + Long.toHexString(checksums[1]) + ")"));
+	}
+	
+	/**
+	 * Count the cycles still riding in the current round.
+	 * 
+	 * @param simulation Simulation.
+	 * @return Cycle count.
+	 */
+	private static int countAlive(final Simulation simulation) {
+		int alive = 0;
+		for (int cycle = 0; cycle < simulation.getCycleCount(); cycle++) {
+			if (simulation.isAlive(cycle)) {
+				alive += 1;
+			}
+		}
+		return alive;
+	}
+	
+	/**
+	 * Test whether an argument list contains a name.
+	 * 
+	 * @param args Arguments.
+	 * @param name Name to find.
+	 * @return Boolean.
+	 */
+	private static boolean contains(final String[] args, final String name) {
+		for (final String arg : args) {
+			if (arg.equals(name)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,65 @@
+package com.jakewharton.tronwallpaper;
+
+import com.jakewharton.tronwallpaper.core.Renderer;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+
+/**
+ * Renderer which draws onto an Android Canvas that has already been
+ * translated and scaled to cell coordinates.
+ * 
+ * @author Jake Wharton
+ */
+public class CanvasRenderer implements Renderer {
+	/**
+	 * Paint used to fill cells.
+	 */
+	private final Paint mCellPaint;
+	
+	/**
+	 * Paint used to outline walls.
+	 */
+	private final Paint mWallPaint;
+	
+	/**
+	 * Canvas currently being drawn on.
+	 */
+	private Canvas mCanvas;
+	
+	
+	
+	/**
+	 * Create a new Canvas renderer.
+	 */
+	public CanvasRenderer() {
+		this.mCellPaint = new Paint();
+		this.mWallPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+		this.mWallPaint.setStyle(Paint.Style.STROKE);
+	}
+	
+	
+	
+	/**
+	 * Set the Canvas which subsequent draws go to.
+	 * 
+	 * @param c Canvas to draw on.
+	 */
+	public void setCanvas(final Canvas c) {
+		this.mCanvas = c;
+	}
+	
+	public void drawCell(final int x, final int y, final int color) {
+		this.mCellPaint.setColor(color);
+		this.mCanvas.drawRect(x, y, x + 1, y + 1, this.mCellPaint);
+	}
+	
+	public void fillCells(final int left, final int top, final int right, final int bottom, final int color) {
+		this.mCellPaint.setColor(color);
+		this.mCanvas.drawRect(left, top, right, bottom, this.mCellPaint);
+	}
+	
+	public void drawWall(final int left, final int top, final int right, final int bottom, final int color) {
+		this.mWallPaint.setColor(color);
+		this.mCanvas.drawRect(left, top, right, bottom, this.mWallPaint);
+	}
+}
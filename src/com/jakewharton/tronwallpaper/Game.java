@@ -1,108 +1,105 @@
 package com.jakewharton.tronwallpaper;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import com.jakewharton.tronwallpaper.R;
+import com.jakewharton.tronwallpaper.core.ArenaGrid;
+import com.jakewharton.tronwallpaper.core.Direction;
+import com.jakewharton.tronwallpaper.core.Layout;
+import com.jakewharton.tronwallpaper.core.Scene;
+import com.jakewharton.tronwallpaper.core.Simulation;
 import com.jakewharton.utilities.WidgetLocationsPreference;
+import android.content.ContentResolver;
 import android.content.SharedPreferences;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Paint;
-import android.graphics.Point;
 import android.graphics.Rect;
-import android.graphics.RectF;
 import android.net.Uri;
 import android.util.Log;
 import android.widget.Toast;
 
 /**
- * Tron game.
+ * Tron game. Feeds preferences to the {@link ArenaGrid} and draws its state.
  * 
  * @author Jake Wharton
  */
 public class Game implements SharedPreferences.OnSharedPreferenceChangeListener {
 	/**
-	 * Possible directions of travel.
-	 * 
-	 * @author Jake Wharton
+	 * Tag used for logging.
 	 */
-	enum Direction {
-		NORTH, SOUTH, EAST, WEST;
-		
-		
-		
-		/**
-		 * Get the direction that is the opposite of this one.
-		 * 
-		 * @return Opposite direction.
-		 */
-		public Game.Direction getOpposite() {
-			switch (this) {
-				case NORTH:
-					return Game.Direction.SOUTH;
-				case SOUTH:
-					return Game.Direction.NORTH;
-				case EAST:
-					return Game.Direction.WEST;
-				case WEST:
-					return Game.Direction.EAST;
-				default:
-					throw new IllegalStateException("This is impossible.");
-			}
-		}
-	}
-	
+	private static final String TAG = "TronWallpaper.Game";
 	
+	/**
+	 * Name of the thread which builds new boards.
+	 */
+	private static final String BOARD_BUILDER_NAME = "TronWallpaper.BoardBuilder";
 	
 	/**
-	 * Single random number generate for this wallpaper.
+	 * Number of most recent ticks kept for an instant replay (three seconds at the default FPS).
 	 */
-	/*package*/static final Random RANDOM = new Random();
+	private static final int REPLAY_TICKS = 75;
 	
 	/**
-	 * Tag used for logging.
+	 * Name of the file the round in progress is saved to.
 	 */
-	private static final String TAG = "TronWallpaper.Game";
+	private static final String SNAPSHOT_FILE = "snapshot";
 	
 	/**
-	 * Cell value for a wall.
+	 * Name of the file the most recently finished rounds are saved to.
 	 */
-	private static final boolean CELL_WALL = false;
+	private static final String RECORDINGS_FILE = "recordings";
 	
 	/**
-	 * Cell value for a blank space.
+	 * Suffix of the file a snapshot or recording is written to before it replaces the previous one.
 	 */
-	private static final boolean CELL_BLANK = true;
+	private static final String SNAPSHOT_TEMP_SUFFIX = ".tmp";
 	
 	/**
-	 * Block cells between icon rows.
+	 * Number of nanoseconds in a millisecond.
 	 */
-	private static final int CELLS_BETWEEN_ROW = 4;
+	private static final double NANOSECONDS_IN_MILLISECOND = 1000000.0;
 	
 	/**
-	 * Block cells between icon columns.
+	 * Game mode where rounds last until a crash.
 	 */
-	private static final int CELLS_BETWEEN_COLUMN = 4;
+	private static final int MODE_VERSUS = 0;
 	
 	/**
-	 * If a random number [0, RANDOM_TURN_MULTIPLIER) is 0 then randomly turn the light cycle.
+	 * Game mode where trails have a maximum length.
 	 */
-	private static final int RANDOM_TURN_MULTIPLIER = 250;
+	private static final int MODE_ENDLESS = 1;
 	
-
+	/**
+	 * Opponent speed preference value which is equal to the player's speed.
+	 */
+	private static final float PERCENT = 100.0f;
 	
 	/**
-	 * Number of cells on the board horizontally.
+	 * Number of nanoseconds in a second.
 	 */
-	private int mCellsWide;
+	private static final long NANOSECONDS_IN_SECOND = 1000000000L;
 	
 	/**
-	 * Number of cells on the board vertically.
+	 * Share of each frame searching AIs may think for. The rest is left for drawing.
 	 */
-	private int mCellsTall;
+	private static final float AI_FRAME_SHARE = 0.5f;
 	
 	/**
 	 * Number of cells horizontally between the columns.
@@ -114,6 +111,11 @@ public class Game implements SharedPreferences.OnSharedPreferenceChangeListener
 	 */
 	private int mCellRowSpacing;
 	
+	/**
+	 * Number of cells each normal cell is subdivided into on each side.
+	 */
+	private int mResolution;
+	
 	/**
 	 * Width (in pixels) of a single cell.
 	 */
@@ -150,104 +152,164 @@ public class Game implements SharedPreferences.OnSharedPreferenceChangeListener
     private int mIconCols;
     
     /**
-     * 2-dimensional array of the board's cells.
+     * Current game mode.
      */
-	private boolean[][] mBoard;
+    private int mMode;
     
     /**
-     * Color of the background.
+     * Maximum number of cells in a trail in endless mode.
      */
-    private int mGameBackground;
+    private int mEndlessTrailLength;
     
     /**
-     * Top padding (in pixels) of the grid from the screen top.
+     * Number of light cycles in the arena.
      */
-    private float mDotGridPaddingTop;
+    private int mCycleCount;
     
     /**
-     * Left padding (in pixels) of the grid from the screen left.
+     * Number of arenas across and down.
      */
-    private float mDotGridPaddingLeft;
+    private int mArenaTiles;
     
     /**
-     * Bottom padding (in pixels) of the grid from the screen bottom.
+     * Speed of the opponents as a percentage of the player's speed.
      */
-    private float mDotGridPaddingBottom;
+    private int mOpponentSpeed;
     
     /**
-     * Right padding (in pixels) of the grid from the screen right.
+     * AI driving the opponents.
      */
-    private float mDotGridPaddingRight;
+    private int mOpponentAi;
     
     /**
-     * Path to the user background image (if any).
+     * Number of frames drawn per second, which bounds the time AIs may think for.
      */
-    private String mBackgroundPath;
+    private int mFPS;
     
     /**
-     * The user background image (if any).
+     * Whether or not the end of a round is played back before the next one starts.
      */
-    private Bitmap mBackground;
+    private boolean mIsInstantReplay;
     
     /**
-     * The locations of widgets on the launcher.
+     * Number of frames each tick of an instant replay is shown for.
      */
-    private List<Rect> mWidgetLocations;
+    private int mReplaySlowdown;
     
     /**
-     * Paint to draw the background color.
+     * Number of frames left in the instant replay, or -1 if one is not playing.
      */
-    private final Paint mBackgroundPaint;
+    private int mReplayFrame = -1;
     
     /**
-     * Walls foreground color.
+     * Whether or not the most recently finished round is kept for bug reports.
      */
-    private final Paint mWallsForeground;
+    private boolean mIsRecordingRounds;
     
     /**
-     * Whether or not we are displaying icon walls
+     * Simulations of the board and light cycles, one per arena.
      */
-    private boolean mIsDisplayingWalls;
+    private ArenaGrid mArenas;
     
     /**
-     * Player cycle positions
+     * Layout of the most recently requested arenas.
      */
-    private final LinkedList<Point> mPlayer;
+    private Layout mArenasLayout;
     
     /**
-     * Opponent cycle positions
+     * Number of light cycles in the most recently requested arenas.
      */
-    private final LinkedList<Point> mOpponent;
+    private int mArenasCycleCount;
     
     /**
-     * Player cycle direction.
+     * Number of tiles of the most recently requested arenas.
      */
-    private Game.Direction mDirectionPlayer;
+    private int mArenasTiles;
     
     /**
-     * Opponent cycle direction.
+     * Whether or not new arenas are being built in the background.
      */
-    private Game.Direction mDirectionOpponent;
+    private boolean mIsBuildingArenas;
     
     /**
-     * Direction the user wants us to travel in.
+     * Background thread which builds new boards while the current one keeps running.
      */
-    private Game.Direction mWantsToGo;
+    private final ExecutorService mBoardBuilder;
     
     /**
-     * Opponent cycle color.
+     * Guards the hand-off of boards from the background thread.
      */
-    private final Paint mOpponentForeground;
+    private final Object mBoardLock;
     
     /**
-     * Player cycle color.
+     * Number of boards requested. Only the most recent request is swapped in.
      */
-    private final Paint mPlayerForeground;
+    private int mBoardGeneration;
     
     /**
-     * Precalculated wall rectangles for drawing
+     * Arenas with a new board ready to be swapped in at the next tick, or <code>null</code>.
      */
-    private final List<RectF> mWalls;
+    private ArenaGrid mReadyArenas;
+    
+    /**
+     * Color of the background.
+     */
+    private int mGameBackground;
+    
+    /**
+     * Top padding (in pixels) of the grid from the screen top.
+     */
+    private float mDotGridPaddingTop;
+    
+    /**
+     * Left padding (in pixels) of the grid from the screen left.
+     */
+    private float mDotGridPaddingLeft;
+    
+    /**
+     * Bottom padding (in pixels) of the grid from the screen bottom.
+     */
+    private float mDotGridPaddingBottom;
+    
+    /**
+     * Right padding (in pixels) of the grid from the screen right.
+     */
+    private float mDotGridPaddingRight;
+    
+    /**
+     * Path to the user background image (if any).
+     */
+    private String mBackgroundPath;
+    
+    /**
+     * The user background image (if any) as decoded, before it is fitted to the screen.
+     */
+    private Bitmap mBackgroundSource;
+    
+    /**
+     * The user background image (if any), fitted to the screen.
+     */
+    private Bitmap mBackground;
+    
+    /**
+     * The locations of widgets on the launcher.
+     */
+    private List<Rect> mWidgetLocations;
+    
+    /**
+     * Paint to draw the background color.
+     */
+    private final Paint mBackgroundPaint;
+    
+    /**
+     * Colors and visibility of the trails and walls.
+     */
+    private final Scene mScene;
+    
+    /**
+     * Renderer which draws the scene to a Canvas.
+     */
+    private final CanvasRenderer mRenderer;
     
     
     
@@ -260,15 +322,19 @@ public class Game implements SharedPreferences.OnSharedPreferenceChangeListener
     	}
 
         //Create Paints
-    	this.mWallsForeground = new Paint(Paint.ANTI_ALIAS_FLAG);
-    	this.mWallsForeground.setStyle(Paint.Style.STROKE);
         this.mBackgroundPaint = new Paint();
-        this.mOpponentForeground = new Paint();
-        this.mPlayerForeground = new Paint();
         
-        this.mPlayer = new LinkedList<Point>();
-        this.mOpponent = new LinkedList<Point>();
-        this.mWalls = new LinkedList<RectF>();
+        this.mScene = new Scene();
+        this.mRenderer = new CanvasRenderer();
+        
+        this.mBoardLock = new Object();
+        this.mBoardBuilder = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        	public Thread newThread(final Runnable runnable) {
+        		final Thread thread = new Thread(runnable, Game.BOARD_BUILDER_NAME);
+        		thread.setDaemon(true);
+        		return thread;
+        	}
+        });
         
         //Load all preferences or their defaults
         Wallpaper.PREFERENCES.registerOnSharedPreferenceChangeListener(this);
@@ -294,13 +360,119 @@ public class Game implements SharedPreferences.OnSharedPreferenceChangeListener
 		
 		boolean hasLayoutChanged = false;
 		boolean hasGraphicsChanged = false;
+		boolean hasNewArenas = false;
+		boolean isPatched = false;
+		
+		
+		// GAME //
+		
+		boolean hasModeChanged = false;
+		
+		final String mode = resources.getString(R.string.settings_game_mode_key);
+		if (all || key.equals(mode)) {
+			this.mMode = Integer.parseInt(preferences.getString(mode, Integer.toString(resources.getInteger(R.integer.game_mode_default))));
+			hasModeChanged = true;
+			
+			if (Wallpaper.LOG_DEBUG) {
+				Log.d(Game.TAG, "Mode: " + this.mMode);
+			}
+		}
+		
+		final String trailLength = resources.getString(R.string.settings_game_traillength_key);
+		if (all || key.equals(trailLength)) {
+			this.mEndlessTrailLength = preferences.getInt(trailLength, resources.getInteger(R.integer.game_traillength_default));
+			hasModeChanged = true;
+			
+			if (Wallpaper.LOG_DEBUG) {
+				Log.d(Game.TAG, "Endless Trail Length: " + this.mEndlessTrailLength);
+			}
+		}
+		
+		final String cycles = resources.getString(R.string.settings_game_cycles_key);
+		if (all || key.equals(cycles)) {
+			this.mCycleCount = preferences.getInt(cycles, resources.getInteger(R.integer.game_cycles_default));
+			hasLayoutChanged = true;
+			
+			if (Wallpaper.LOG_DEBUG) {
+				Log.d(Game.TAG, "Light Cycles: " + this.mCycleCount);
+			}
+		}
+		
+		final String arenas = resources.getString(R.string.settings_game_arenas_key);
+		if (all || key.equals(arenas)) {
+			this.mArenaTiles = preferences.getInt(arenas, resources.getInteger(R.integer.game_arenas_default));
+			hasLayoutChanged = true;
+			
+			if (Wallpaper.LOG_DEBUG) {
+				Log.d(Game.TAG, "Arenas: " + this.mArenaTiles);
+			}
+		}
+		
+		final String opponentSpeed = resources.getString(R.string.settings_game_opponentspeed_key);
+		if (all || key.equals(opponentSpeed)) {
+			this.mOpponentSpeed = preferences.getInt(opponentSpeed, resources.getInteger(R.integer.game_opponentspeed_default));
+			hasModeChanged = true;
+			
+			if (Wallpaper.LOG_DEBUG) {
+				Log.d(Game.TAG, "Opponent Speed: " + this.mOpponentSpeed + "%");
+			}
+		}
+		
+		final String opponentAi = resources.getString(R.string.settings_game_opponentai_key);
+		if (all || key.equals(opponentAi)) {
+			this.mOpponentAi = Integer.parseInt(preferences.getString(opponentAi, Integer.toString(resources.getInteger(R.integer.game_opponentai_default))));
+			hasModeChanged = true;
+			
+			if (Wallpaper.LOG_DEBUG) {
+				Log.d(Game.TAG, "Opponent AI: " + this.mOpponentAi);
+			}
+		}
+		
+		final String fps = resources.getString(R.string.settings_display_fps_key);
+		if (all || key.equals(fps)) {
+			this.mFPS = preferences.getInt(fps, resources.getInteger(R.integer.display_fps_default));
+			hasModeChanged = true;
+			
+			if (Wallpaper.LOG_DEBUG) {
+				Log.d(Game.TAG, "FPS: " + this.mFPS);
+			}
+		}
+		
+		final String instantReplay = resources.getString(R.string.settings_game_instantreplay_key);
+		if (all || key.equals(instantReplay)) {
+			this.mIsInstantReplay = preferences.getBoolean(instantReplay, resources.getBoolean(R.bool.game_instantreplay_default));
+			hasModeChanged = true;
+			
+			if (Wallpaper.LOG_DEBUG) {
+				Log.d(Game.TAG, "Is Instant Replay: " + this.mIsInstantReplay);
+			}
+		}
+		
+		final String replaySlowdown = resources.getString(R.string.settings_game_replayslowdown_key);
+		if (all || key.equals(replaySlowdown)) {
+			this.mReplaySlowdown = preferences.getInt(replaySlowdown, resources.getInteger(R.integer.game_replayslowdown_default));
+			
+			if (Wallpaper.LOG_DEBUG) {
+				Log.d(Game.TAG, "Replay Slow Motion: " + this.mReplaySlowdown);
+			}
+		}
+		
+		final String recordRounds = resources.getString(R.string.settings_game_recordrounds_key);
+		if (all || key.equals(recordRounds)) {
+			this.mIsRecordingRounds = preferences.getBoolean(recordRounds, resources.getBoolean(R.bool.game_recordrounds_default));
+			hasModeChanged = true;
+			
+			if (Wallpaper.LOG_DEBUG) {
+				Log.d(Game.TAG, "Is Recording Rounds: " + this.mIsRecordingRounds);
+			}
+		}
 		
 		final String showWalls = resources.getString(R.string.settings_display_showwalls_key);
 		if (all || key.equals(showWalls)) {
-			this.mIsDisplayingWalls = preferences.getBoolean(showWalls, resources.getBoolean(R.bool.display_showwalls_default));
+			this.mScene.setIsDisplayingWalls(preferences.getBoolean(showWalls, resources.getBoolean(R.bool.display_showwalls_default)));
 			
 			if (Wallpaper.LOG_DEBUG) {
-				Log.d(Game.TAG, "Is Displaying Walls: " + this.mIsDisplayingWalls);
+				Log.d(Game.TAG, "Is Displaying Walls: " + this.mScene.isDisplayingWalls());
 			}
 		}
 		
@@ -328,16 +500,18 @@ public class Game implements SharedPreferences.OnSharedPreferenceChangeListener
 		
 		final String wallsForeground = resources.getString(R.string.settings_color_walls_key);
 		if (all || key.equals(wallsForeground)) {
-			this.mWallsForeground.setColor(preferences.getInt(wallsForeground, resources.getInteger(R.integer.color_walls_default)));
+			this.mScene.setWallsColor(preferences.getInt(wallsForeground, resources.getInteger(R.integer.color_walls_default)));
 			
 			if (Wallpaper.LOG_DEBUG) {
-				Log.d(Game.TAG, "Walls Foreground: #" + Integer.toHexString(this.mWallsForeground.getColor()));
+				Log.d(Game.TAG, "Walls Foreground: #" + Integer.toHexString(this.mScene.getWallsColor()));
 			}
 		}
 		
 		final String backgroundImage = resources.getString(R.string.settings_color_bgimage_key);
 		if (all || key.equals(backgroundImage)) {
 			this.mBackgroundPath = preferences.getString(backgroundImage, null);
+			this.mBackgroundSource = null;
+			this.mBackground = null;
 			
 			if (this.mBackgroundPath != null) {			
 				if (Wallpaper.LOG_DEBUG) {
@@ -346,8 +520,6 @@ public class Game implements SharedPreferences.OnSharedPreferenceChangeListener
 				
 				//Trigger performResize
 				hasGraphicsChanged = true;
-			} else {
-				this.mBackground = null;
 			}
 		}
 		
@@ -362,19 +534,19 @@ public class Game implements SharedPreferences.OnSharedPreferenceChangeListener
 		
 		final String lightCycle = resources.getString(R.string.settings_color_player_key);
 		if (all || key.equals(lightCycle)) {
-			this.mPlayerForeground.setColor(preferences.getInt(lightCycle, resources.getInteger(R.integer.color_player_default)));
+			this.mScene.setCycleColor(Simulation.PLAYER, preferences.getInt(lightCycle, resources.getInteger(R.integer.color_player_default)));
 			
 			if (Wallpaper.LOG_DEBUG) {
-				Log.d(Game.TAG, "Player Foreground: #" + Integer.toHexString(this.mPlayerForeground.getColor()));
+				Log.d(Game.TAG, "Player Foreground: #" + Integer.toHexString(this.mScene.getCycleColor(Simulation.PLAYER)));
 			}
 		}
 		
 		final String opponent = resources.getString(R.string.settings_color_opponent_key);
 		if (all || key.equals(opponent)) {
-			this.mOpponentForeground.setColor(preferences.getInt(opponent, resources.getInteger(R.integer.color_opponent_default)));
+			this.mScene.setCycleColor(Simulation.OPPONENT, preferences.getInt(opponent, resources.getInteger(R.integer.color_opponent_default)));
 			
 			if (Wallpaper.LOG_DEBUG) {
-				Log.d(Game.TAG, "Opponent Foreground: #" + Integer.toHexString(this.mOpponentForeground.getColor()));
+				Log.d(Game.TAG, "Opponent Foreground: #" + Integer.toHexString(this.mScene.getCycleColor(Simulation.OPPONENT)));
 			}
 		}
     	
@@ -464,24 +636,65 @@ public class Game implements SharedPreferences.OnSharedPreferenceChangeListener
 			}
 		}
 		
+		final String resolution = resources.getString(R.string.settings_display_resolution_key);
+		if (all || key.equals(resolution)) {
+			this.mResolution = preferences.getInt(resolution, resources.getInteger(R.integer.display_resolution_default));
+			hasLayoutChanged = true;
+			
+			if (Wallpaper.LOG_DEBUG) {
+		    	Log.d(Game.TAG, "Cell Resolution: " + this.mResolution);
+			}
+		}
+		
 		if (hasLayoutChanged) {
-	    	this.mCellsWide = (this.mIconCols * (this.mCellColumnSpacing + Game.CELLS_BETWEEN_COLUMN)) + Game.CELLS_BETWEEN_COLUMN;
-	    	this.mCellsTall = (this.mIconRows * (this.mCellRowSpacing + Game.CELLS_BETWEEN_ROW)) + Game.CELLS_BETWEEN_ROW;
-	    	
+			final List<Layout.Widget> widgets = new LinkedList<Layout.Widget>();
+			for (final Rect widget : this.mWidgetLocations) {
+				widgets.add(new Layout.Widget(widget.left, widget.top, widget.right, widget.bottom));
+			}
+			final Layout layout = new Layout(this.mIconRows, this.mIconCols, this.mCellRowSpacing, this.mCellColumnSpacing, this.mResolution, widgets);
+			
 	    	if (Wallpaper.LOG_DEBUG) {
-	    		Log.d(Game.TAG, "Cells Wide: " + this.mCellsWide);
-	    		Log.d(Game.TAG, "Cells Tall: " + this.mCellsTall);
+	    		Log.d(Game.TAG, "Cells Wide: " + layout.getCellsWide());
+	    		Log.d(Game.TAG, "Cells Tall: " + layout.getCellsTall());
 	    	}
 	    	
-	    	//Create playing board
-	        this.mBoard = new boolean[this.mCellsTall][this.mCellsWide];
+	    	final boolean isSameArenas = (this.mArenas != null) && (this.mCycleCount == this.mArenasCycleCount) && (this.mArenaTiles == this.mArenasTiles);
+	    	if (isSameArenas && !this.mIsBuildingArenas && !layout.equals(this.mArenasLayout) && this.mArenas.isPatchable(layout)) {
+	    		//Only the widgets moved so patch the walls in place and keep the round running
+	    		this.mArenasLayout = layout;
+	    		this.mArenas.patchLayout(layout);
+	    		isPatched = true;
+	    		
+	    		if (Wallpaper.LOG_DEBUG) {
+	    			Log.d(Game.TAG, "Patched Widgets: " + layout.getWidgets());
+	    		}
+	    	} else if (!isSameArenas || !layout.equals(this.mArenasLayout)) {
+	    		//Create playing board with its own random sequence unless the layout and cycles are unchanged
+	    		this.mArenasLayout = layout;
+	    		this.mArenasCycleCount = this.mCycleCount;
+	    		this.mArenasTiles = this.mArenaTiles;
+	    		
+	    		if (this.mArenas == null) {
+	    			//Nothing to show in the meantime so the first board is built right away
+	    			this.mArenas = Game.createArenas(layout, this.mArenaTiles, this.mCycleCount);
+	    			this.mArenas.newBoard();
+	    		} else {
+	    			this.buildArenas(layout, this.mArenaTiles, this.mCycleCount);
+	    		}
+	    		hasNewArenas = true;
+	    	}
+		}
+		if (hasLayoutChanged || hasModeChanged) {
+			this.applyGameSettings();
 		}
 		if (hasLayoutChanged || hasGraphicsChanged) {
 			if ((this.mScreenWidth > 0) && (this.mScreenHeight > 0)) {
-				//Resize everything to fit
+				//Resize everything to fit. Graphics-only changes stop here and keep the round running.
 				this.performResize(this.mScreenWidth, this.mScreenHeight);
 			}
-
+		}
+		if (hasLayoutChanged && !hasNewArenas && !isPatched) {
+			//Same arenas, but the layout preferences were touched so start over
 	    	this.newBoard();
 		}
 
@@ -491,88 +704,196 @@ public class Game implements SharedPreferences.OnSharedPreferenceChangeListener
 	}
 
     /**
-     * Test if a Point is a valid coordinate on the game board.
-     * 
-     * @param position Point representing coordinate.
-     * @return Boolean indicating whether or not the position is valid.
+     * Apply the mode and speed preferences to the current arenas.
      */
-	private boolean isValidPosition(final Point position) {
-		return ((position.x >= 0) && (position.x < this.mCellsWide)
-				&& (position.y >= 0) && (position.y < this.mCellsTall)
-				&& (this.mBoard[position.y][position.x] == Game.CELL_BLANK));
-	}
+    private void applyGameSettings() {
+		//Trails are trimmed in place so switching modes does not end the round
+		this.mArenas.setMaxTrailLength((this.mMode == Game.MODE_ENDLESS) ? this.mEndlessTrailLength : 0);
+		
+		for (int cycle = Simulation.OPPONENT; cycle < this.mArenas.getCycleCount(); cycle++) {
+			this.mArenas.setSpeed(cycle, this.mOpponentSpeed / Game.PERCENT);
+			this.mArenas.setAi(cycle, this.mOpponentAi);
+		}
+		this.mArenas.setAiBudget(this.getAiBudget());
+		
+		//Moves are only recorded while there is a replay to show them in
+		this.mArenas.setRewindTicks(this.mIsInstantReplay ? Game.REPLAY_TICKS : 0);
+		this.mArenas.setIsHoldingRounds(this.mIsInstantReplay);
+		if (!this.mIsInstantReplay) {
+			this.finishReplay();
+		}
+		
+		this.mArenas.setIsRecording(this.mIsRecordingRounds);
+    }
     
     /**
-     * Reset the game state to that of first initialization.
+     * Stop the instant replay, if one is playing, and start the rounds it was showing the end of.
      */
-    public void newBoard() {
-    	if (Wallpaper.LOG_VERBOSE) {
-    		Log.v(Game.TAG, "> newBoard()");
+    private void finishReplay() {
+    	this.mReplayFrame = -1;
+    	this.mArenas.startHeldRounds();
+    }
+    
+    /**
+     * Create arenas with their own random sequence.
+     * 
+     * @param layout Layout of the whole launcher.
+     * @param tiles Number of arenas across and down.
+     * @param cycleCount Number of light cycles in each arena.
+     * @return Arenas, without a board.
+     */
+    private static ArenaGrid createArenas(final Layout layout, final int tiles, final int cycleCount) {
+    	final ArenaGrid arenas = new ArenaGrid(layout, tiles, cycleCount, System.nanoTime(), Runtime.getRuntime().availableProcessors());
+    	arenas.setIsChecksumming(Wallpaper.LOG_DEBUG);
+    	
+    	if (Wallpaper.LOG_DEBUG) {
+    		Log.d(Game.TAG, "Seed: " + arenas.getArena(0).getSeed());
+    		Log.d(Game.TAG, "Arena Count: " + arenas.getArenaCount());
     	}
-
-    	//Initialize board
-    	final int iconCellsWidth = this.mCellColumnSpacing + Game.CELLS_BETWEEN_COLUMN;
-    	final int iconCellsHeight = this.mCellRowSpacing + Game.CELLS_BETWEEN_ROW;
-    	for (int y = 0; y < this.mCellsTall; y++) {
-    		for (int x = 0; x < this.mCellsWide; x++) {
-    			this.mBoard[y][x] = (((x % iconCellsWidth) < Game.CELLS_BETWEEN_COLUMN) || ((y % iconCellsHeight) < Game.CELLS_BETWEEN_ROW)) ? Game.CELL_BLANK : Game.CELL_WALL;
+    	return arenas;
+    }
+    
+    /**
+     * Build new arenas on the background thread. The current arenas keep
+     * running until the new ones are swapped in by the next tick after they
+     * are ready.
+     * 
+     * @param layout Layout of the whole launcher.
+     * @param tiles Number of arenas across and down.
+     * @param cycleCount Number of light cycles in each arena.
+     */
+    private void buildArenas(final Layout layout, final int tiles, final int cycleCount) {
+    	final int generation = this.nextBoardGeneration();
+    	this.mIsBuildingArenas = true;
+    	this.mBoardBuilder.execute(new Runnable() {
+    		public void run() {
+    			final ArenaGrid arenas = Game.createArenas(layout, tiles, cycleCount);
+    			arenas.newBoard();
+    			Game.this.publishBoard(arenas, generation, true);
     		}
+    	});
+    }
+    
+    /**
+     * Start a new board request, discarding any board which is ready but not
+     * yet swapped in. Discarded arenas other than the current ones are shut
+     * down so their worker threads exit.
+     * 
+     * @return Generation of the request.
+     */
+    private int nextBoardGeneration() {
+    	final ArenaGrid discarded;
+    	final int generation;
+    	synchronized (this.mBoardLock) {
+    		discarded = this.mReadyArenas;
+    		this.mReadyArenas = null;
+    		generation = ++this.mBoardGeneration;
     	}
     	
-    	//Remove board under widgets
-    	for (final Rect widget : this.mWidgetLocations) {
-    		if (Wallpaper.LOG_DEBUG) {
-    			Log.d(Game.TAG, "Widget: L=" + widget.left + ", T=" + widget.top + ", R=" + widget.right + ", B=" + widget.bottom);
-    		}
-    		
-    		final int left = (widget.left * iconCellsWidth) + Game.CELLS_BETWEEN_COLUMN;
-    		final int top = (widget.top * iconCellsHeight) + Game.CELLS_BETWEEN_ROW;
-    		final int right = (widget.right * iconCellsWidth) + iconCellsWidth - 1;
-    		final int bottom = (widget.bottom * iconCellsHeight) + iconCellsHeight - 1;
-    		for (int y = top; y <= bottom; y++) {
-    			for (int x = left; x <= right; x++) {
-    				this.mBoard[y][x] = Game.CELL_WALL;
-    			}
+    	if ((discarded != null) && (discarded != this.mArenas)) {
+    		discarded.shutdown();
+    	}
+    	return generation;
+    }
+    
+    /**
+     * Hand a new board over from the background thread if it is still the
+     * most recent request. New arenas built for a request which has since
+     * been superseded are shut down instead.
+     * 
+     * @param arenas Arenas with a new board.
+     * @param generation Generation of the request.
+     * @param isNewArenas Whether or not the arenas were built for this request rather than being the current ones.
+     */
+    private void publishBoard(final ArenaGrid arenas, final int generation, final boolean isNewArenas) {
+    	synchronized (this.mBoardLock) {
+    		if (generation == this.mBoardGeneration) {
+    			this.mReadyArenas = arenas;
+    			return;
     		}
     	}
     	
-    	//Initialize game
-    	this.newGame();
-    	
-    	if (Wallpaper.LOG_VERBOSE) {
-    		Log.v(Game.TAG, "< newBoard()");
+    	if (isNewArenas) {
+    		arenas.shutdown();
     	}
     }
     
     /**
-     * Reset players.
+     * Discard any board requested from the background thread and wait for it
+     * to stop. Must be called before the arenas' spare boards are used on
+     * this thread, as restoring a snapshot does.
+     * 
+     * @return Whether or not the background thread stopped. It may not if this thread is interrupted.
      */
-    private void newGame() {
-    	//Create player and opponent
-    	this.mPlayer.clear();
-    	this.mOpponent.clear();
+    private boolean cancelBoardRequests() {
+    	this.nextBoardGeneration();
     	
-    	//Get starting position for players
-    	this.mPlayer.add(this.getRandomValidPosition());
-    	this.mOpponent.add(this.getRandomValidPosition());
-    	
-    	//No user direction
-    	this.mWantsToGo = null;
+    	//The builder runs one task at a time so this waits for every earlier one
+    	try {
+    		this.mBoardBuilder.submit(new Runnable() {
+    			public void run() {}
+    		}).get();
+    		return true;
+    	} catch (final InterruptedException e) {
+    		Thread.currentThread().interrupt();
+    		return false;
+    	} catch (final ExecutionException e) {
+    		throw new IllegalStateException("Board builder failed.", e.getCause());
+    	}
     }
     
     /**
-     * Get a random valid position on the board.
-     * 
-     * @return Point.
-     */
-    private Point getRandomValidPosition() {
-    	final Point position = new Point();
-    	while (true) {
-    		position.x = Game.RANDOM.nextInt(this.mCellsWide);
-    		position.y = Game.RANDOM.nextInt(this.mCellsTall);
-    		if (!this.isCollision(position)) {
-    			return position;
-    		}
+     * Swap in a board built in the background, if one is ready. Must only be called between ticks.
+     */
+    private void swapReadyBoard() {
+    	final ArenaGrid ready;
+    	synchronized (this.mBoardLock) {
+    		ready = this.mReadyArenas;
+    		this.mReadyArenas = null;
+    	}
+    	
+    	if (ready == null) {
+    		return;
+    	}
+    	if (ready == this.mArenas) {
+    		ready.swapBoard();
+    	} else {
+    		this.mArenas.shutdown();
+    		this.mArenas = ready;
+    		this.mIsBuildingArenas = false;
+    		this.applyGameSettings();
+    		
+			if ((this.mScreenWidth > 0) && (this.mScreenHeight > 0)) {
+				//Resize everything to fit the new board
+				this.performResize(this.mScreenWidth, this.mScreenHeight);
+			}
+    	}
+    }
+
+    /**
+     * Reset the game state to that of first initialization. The blank board
+     * is prepared in the background and the current round keeps running
+     * until it is swapped in by the next tick after it is ready.
+     */
+    public void newBoard() {
+    	if (Wallpaper.LOG_VERBOSE) {
+    		Log.v(Game.TAG, "> newBoard()");
+    	}
+    	
+    	//New arenas already start on a new board
+    	if (!this.mIsBuildingArenas) {
+	    	final ArenaGrid arenas = this.mArenas;
+	    	final int generation = this.nextBoardGeneration();
+	    	this.mBoardBuilder.execute(new Runnable() {
+	    		public void run() {
+	    			arenas.prepareBoard();
+	    			Game.this.publishBoard(arenas, generation, false);
+	    		}
+	    	});
+    	}
+    	
+    	if (Wallpaper.LOG_VERBOSE) {
+    		Log.v(Game.TAG, "< newBoard()");
     	}
     }
     
@@ -581,8 +902,8 @@ public class Game implements SharedPreferences.OnSharedPreferenceChangeListener
      * 
      * @param direction
      */
-    public void setWantsToGo(final Game.Direction direction) {
-    	this.mWantsToGo = direction;
+    public void setWantsToGo(final Direction direction) {
+    	this.mArenas.setWantsToGo(direction);
     	
     	if (Wallpaper.LOG_DEBUG) {
     		Log.d(Game.TAG, "Wants To Go: " + direction.toString());
@@ -590,124 +911,197 @@ public class Game implements SharedPreferences.OnSharedPreferenceChangeListener
     }
     
     /**
-     * Iterate player and opponent.
+     * Iterate every light cycle.
      */
     public void tick() {
-    	this.determineNextPlayerDirection();
-    	final Point playerNewPoint = Game.move(this.mPlayer.getLast(), this.mDirectionPlayer);
-    	if (this.isCollision(playerNewPoint)) {
-    		this.newGame();
+    	if (this.mReplayFrame > 0) {
+    		//Play the end of the round back one frame at a time
+    		this.mReplayFrame -= 1;
     		return;
     	}
-    	this.mPlayer.add(playerNewPoint);
+    	if (this.mReplayFrame == 0) {
+    		this.finishReplay();
+    	}
     	
-    	this.determineNextOpponentDirection();
-    	final Point opponentNewPoint = Game.move(this.mOpponent.getLast(), this.mDirectionOpponent);
-    	if (this.isCollision(opponentNewPoint)) {
-    		this.newGame();
-    		return;
+    	this.swapReadyBoard();
+    	this.mArenas.tick();
+    	
+    	if (this.mIsInstantReplay && this.mArenas.isAnyRoundOver()) {
+    		this.mReplayFrame = Game.REPLAY_TICKS * this.mReplaySlowdown;
     	}
-    	this.mOpponent.add(opponentNewPoint);
     }
     
     /**
-     * Test if a point collides with the player or opponent.
+     * Get the time searching AIs may think for in a single tick so that
+     * every frame is still drawn on time.
      * 
-     * @param testPoint Point to test.
-     * @return Whether or not the point collides.
+     * @return Nanoseconds.
      */
-    private boolean isCollision(final Point testPoint) {
-    	//Test for walls
-    	if (!this.isValidPosition(testPoint)) {
-    		return true;
+    private long getAiBudget() {
+    	return (long)((Game.NANOSECONDS_IN_SECOND / this.mFPS) * Game.AI_FRAME_SHARE);
+    }
+    
+    /**
+     * Iterate every light cycle many times without rendering.
+     * 
+     * @param ticks Number of ticks to advance.
+     */
+    public void advance(final int ticks) {
+    	//Nobody was watching so there is nothing to replay
+    	this.finishReplay();
+    	this.mArenas.setIsHoldingRounds(false);
+    	
+    	this.swapReadyBoard();
+    	
+    	//Catching up has no frame to share so searching AIs play without thinking
+    	this.mArenas.setAiBudget(0);
+    	final int rounds = this.mArenas.advance(ticks);
+    	this.mArenas.setAiBudget(this.getAiBudget());
+    	this.mArenas.setIsHoldingRounds(this.mIsInstantReplay);
+    	
+    	if (Wallpaper.LOG_DEBUG) {
+    		Log.d(Game.TAG, "Advanced " + ticks + " ticks, " + rounds + " rounds ended.");
     	}
-    	//Test opponent first
-    	for (final Point point : this.mOpponent) {
-    		if (Game.pointEquals(point, testPoint)) {
-    			return true;
-    		}
+    }
+
+    /**
+     * Save the round in progress so that a new game can resume it with
+     * {@link #restoreSnapshot()}, along with the most recently finished
+     * rounds if they are being recorded. The state is captured right away
+     * but written to storage on the background thread.
+     */
+    public void saveSnapshot() {
+    	if (this.mIsBuildingArenas) {
+    		//The arenas on screen are about to be replaced
+    		return;
     	}
-    	//Test player
-    	for (final Point point : this.mPlayer) {
-    		if (Game.pointEquals(point, testPoint)) {
-    			return true;
+    	
+    	//Rounds which have ended cannot be resumed
+    	this.finishReplay();
+    	
+    	final long start = System.nanoTime();
+    	final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    	try {
+    		this.mArenas.writeSnapshot(new DataOutputStream(bytes));
+    	} catch (final IOException e) {
+    		throw new IllegalStateException("Unable to write snapshot to memory.", e);
+    	}
+    	final byte[] snapshot = bytes.toByteArray();
+    	
+    	//Recordings are reused as rounds end so they are captured now as well
+    	byte[] recordings = null;
+    	if (this.mIsRecordingRounds) {
+    		bytes.reset();
+    		try {
+    			this.mArenas.writeLastRecordings(new DataOutputStream(bytes));
+    		} catch (final IOException e) {
+    			throw new IllegalStateException("Unable to write recordings to memory.", e);
     		}
+    		recordings = bytes.toByteArray();
+    	}
+    	
+    	if (Wallpaper.LOG_DEBUG) {
+    		Log.d(Game.TAG, "Snapshot Saved: " + snapshot.length + " bytes in " + ((System.nanoTime() - start) / Game.NANOSECONDS_IN_MILLISECOND) + "ms");
     	}
-    	return false;
+    	
+    	final byte[] finishedRounds = recordings;
+    	this.mBoardBuilder.execute(new Runnable() {
+    		public void run() {
+    			Game.writeFile(Game.SNAPSHOT_FILE, snapshot);
+    			if (finishedRounds != null) {
+    				Game.writeFile(Game.RECORDINGS_FILE, finishedRounds);
+    			}
+    		}
+    	});
     }
     
     /**
-     * Try to go straight, otherwise make a valid turn and, on occasion, randomize!
+     * Replace a saved file. The previous one is kept if writing fails part way.
+     * 
+     * @param name File name.
+     * @param data Contents.
      */
-    private void determineNextPlayerDirection() {
-		final Point head = this.mPlayer.getLast();
-		
-		//Try the user direction first
-		final Point newPoint = Game.move(head, this.mWantsToGo);
-		if ((this.mWantsToGo != null) && !this.isCollision(newPoint)) {
-			//Follow user direction and GTFO
-			this.mDirectionPlayer = this.mWantsToGo;
-			return;
-		}
-		
-    	//TODO: real AI
-		Game.Direction nextDirection = null;
-    	//favor current direction most of the time
-    	if (!this.isCollision(Game.move(head, this.mDirectionPlayer)) && (Game.RANDOM.nextInt(Game.RANDOM_TURN_MULTIPLIER) != 0)) {
-    		nextDirection = this.mDirectionPlayer;
-    	} else {
-	    	final List<Game.Direction> directions = new LinkedList<Game.Direction>();
-	    	for (final Game.Direction direction : Game.Direction.values()) {
-	    		if (!this.isCollision(Game.move(head, direction))) {
-	    			directions.add(direction);
-	    		}
-	    	}
-	    	if (directions.size() == 0) {
-	    		nextDirection = Game.Direction.NORTH;
-	    	} else {
-	    		nextDirection = directions.get(Game.RANDOM.nextInt(directions.size()));
-	    	}
+    private static void writeFile(final String name, final byte[] data) {
+    	final File file = new File(Wallpaper.CONTEXT.getFilesDir(), name);
+    	final File temp = new File(file.getPath() + Game.SNAPSHOT_TEMP_SUFFIX);
+    	try {
+    		final OutputStream out = new FileOutputStream(temp);
+    		try {
+    			out.write(data);
+    		} finally {
+    			out.close();
+    		}
+    		if (!temp.renameTo(file)) {
+    			throw new IOException("Unable to replace " + file);
+    		}
+    	} catch (final IOException e) {
+    		e.printStackTrace();
+    		Log.w(Game.TAG, "Unable to save " + name + ".");
     	}
-		
-		//If the wants-to-go direction exists and the AI forced us to change direction then wants-to-go direction
-		//is impossible and should be cleared
-		if ((this.mWantsToGo != null) && (this.mDirectionPlayer != nextDirection)) {
-			this.mWantsToGo = null;
-			
-			if (Wallpaper.LOG_DEBUG) {
-				Log.d(Game.TAG, "Clearing wants-to-go direction via AI.");
-			}
-		}
-		
-		this.mDirectionPlayer = nextDirection;
     }
     
     /**
-     * Try to go straight, otherwise make a valid turn and, on occasion, randomize!
+     * Resume the round saved by {@link #saveSnapshot()} if it was saved with
+     * the current layout, cycle count and arena count. Otherwise the current
+     * board is kept.
      */
-    private void determineNextOpponentDirection() {
-    	//TODO: real AI
-    	final Point position = this.mOpponent.getLast();
-    	//favor current direction most of the time
-    	if (!this.isCollision(Game.move(position, this.mDirectionOpponent)) && (Game.RANDOM.nextInt(Game.RANDOM_TURN_MULTIPLIER) != 0)) {
+    public void restoreSnapshot() {
+    	final File file = new File(Wallpaper.CONTEXT.getFilesDir(), Game.SNAPSHOT_FILE);
+    	if (this.mIsBuildingArenas || !file.exists()) {
     		return;
     	}
-    	final List<Game.Direction> directions = new LinkedList<Game.Direction>();
-    	for (final Game.Direction direction : Game.Direction.values()) {
-    		if (!this.isCollision(Game.move(position, direction))) {
-    			directions.add(direction);
+    	
+    	//Restoring fills the same spare boards a pending new board would
+    	if (!this.cancelBoardRequests()) {
+    		return;
+    	}
+    	
+    	final long start = System.nanoTime();
+    	boolean isRestored = false;
+    	try {
+    		final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    		try {
+    			isRestored = this.mArenas.readSnapshot(in);
+    		} finally {
+    			in.close();
     		}
+    	} catch (final IOException e) {
+    		e.printStackTrace();
+    		Log.w(Game.TAG, "Unable to restore snapshot.");
+    		
+    		//The arenas may have been partially restored
+    		this.mArenas.newBoard();
     	}
-    	if (directions.size() == 0) {
-    		this.mDirectionOpponent = Game.Direction.NORTH;
-    	} else {
-    		this.mDirectionOpponent = directions.get(Game.RANDOM.nextInt(directions.size()));
+    	
+    	if (Wallpaper.LOG_DEBUG) {
+    		Log.d(Game.TAG, "Snapshot Restored: " + isRestored + " in " + ((System.nanoTime() - start) / Game.NANOSECONDS_IN_MILLISECOND) + "ms");
     	}
     }
+    
+    /**
+     * Stop any background work and listening for preference changes. The
+     * game can no longer be advanced. Snapshots already saved are written
+     * out before this returns.
+     */
+    public void shutdown() {
+    	//A preference change would otherwise hand work to the stopped builder
+    	Wallpaper.PREFERENCES.unregisterOnSharedPreferenceChangeListener(this);
+    	
+    	//The builder's threads are daemons so a queued write would be lost with the process
+    	this.cancelBoardRequests();
+    	this.mBoardBuilder.shutdown();
+    	
+    	//Shuts down arenas which are ready but were never swapped in, and any still being built once they are published
+    	this.nextBoardGeneration();
+    	this.mArenas.shutdown();
+    }
 
     /**
      * Resize the game board and all entities according to a new width and height.
      * 
+     * The round in progress is kept: trails are stored in cells and only the
+     * cell-to-pixel scale changes, so a rotation is a single rescale.
+     * 
      * @param screenWidth New width.
      * @param screenHeight New height.
      */
@@ -716,37 +1110,18 @@ public class Game implements SharedPreferences.OnSharedPreferenceChangeListener
     		Log.v(Game.TAG, "> performResize(width = " + screenWidth + ", height = " + screenHeight + ")");
     	}
     	
-    	//Background image
-    	if (this.mBackgroundPath != null) {
+    	//Background image is decoded once per path and only refitted when the size changes (e.g., rotation)
+    	if ((this.mBackgroundPath != null) && ((this.mBackground == null) || (screenWidth != this.mScreenWidth) || (screenHeight != this.mScreenHeight))) {
 			try {
-				final Bitmap temp = BitmapFactory.decodeStream(Wallpaper.CONTEXT.getContentResolver().openInputStream(Uri.parse(this.mBackgroundPath)));
-				final float pictureAR = temp.getWidth() / (temp.getHeight() * 1.0f);
-				final float screenAR = screenWidth / (screenHeight * 1.0f);
-				int newWidth;
-				int newHeight;
-				int x;
-				int y;
-				
-				if (pictureAR > screenAR) {
-					//wider than tall related to the screen AR
-					newHeight = screenHeight;
-					newWidth = (int)(temp.getWidth() * (screenHeight / (temp.getHeight() * 1.0f)));
-					x = (newWidth - screenWidth) / 2;
-					y = 0;
-				} else {
-					//taller than wide related to the screen AR
-					newWidth = screenWidth;
-					newHeight = (int)(temp.getHeight() * (screenWidth / (temp.getWidth() * 1.0f)));
-					x = 0;
-					y = (newHeight - screenHeight) / 2;
+				if (this.mBackgroundSource == null) {
+					this.mBackgroundSource = this.decodeBackground(Math.max(screenWidth, screenHeight));
 				}
-				
-	    		final Bitmap scaled = Bitmap.createScaledBitmap(temp, newWidth, newHeight, false);
-	    		this.mBackground = Bitmap.createBitmap(scaled, x, y, screenWidth, screenHeight);
+				this.mBackground = Game.fitBackground(this.mBackgroundSource, screenWidth, screenHeight);
 			} catch (final Exception e) {
 				e.printStackTrace();
 				Log.w(Game.TAG, "Unable to load background bitmap.");
 				Toast.makeText(Wallpaper.CONTEXT, "Unable to load background bitmap.", Toast.LENGTH_SHORT).show();
+				this.mBackgroundSource = null;
 				this.mBackground = null;
 			}
     	}
@@ -756,47 +1131,11 @@ public class Game implements SharedPreferences.OnSharedPreferenceChangeListener
     	this.mScreenHeight = screenHeight;
     	
     	if (this.mIsLandscape) {
-    		this.mScaleX = (screenWidth - (this.mDotGridPaddingLeft + this.mDotGridPaddingRight + this.mDotGridPaddingBottom)) / (this.mCellsWide * 1.0f);
-    		this.mScaleY = (screenHeight - this.mDotGridPaddingTop) / (this.mCellsTall * 1.0f);
+    		this.mScaleX = (screenWidth - (this.mDotGridPaddingLeft + this.mDotGridPaddingRight + this.mDotGridPaddingBottom)) / (this.mArenas.getCellsWide() * 1.0f);
+    		this.mScaleY = (screenHeight - this.mDotGridPaddingTop) / (this.mArenas.getCellsTall() * 1.0f);
     	} else {
-    		this.mScaleX = (screenWidth - (this.mDotGridPaddingLeft + this.mDotGridPaddingRight)) / (this.mCellsWide * 1.0f);
-    		this.mScaleY = (screenHeight - (this.mDotGridPaddingTop + this.mDotGridPaddingBottom)) / (this.mCellsTall * 1.0f);
-    	}
-    	
-    	//Calculate walls
-    	this.mWalls.clear();
-		
-    	//Widget walls
-    	for (final Rect widget : this.mWidgetLocations) {
-			final float left = (widget.left * (this.mCellColumnSpacing + Game.CELLS_BETWEEN_COLUMN)) + Game.CELLS_BETWEEN_COLUMN;
-			final float top = (widget.top * (this.mCellRowSpacing + Game.CELLS_BETWEEN_ROW)) + Game.CELLS_BETWEEN_ROW;
-    		final float right = ((widget.right * (this.mCellColumnSpacing + Game.CELLS_BETWEEN_COLUMN)) + this.mCellColumnSpacing + Game.CELLS_BETWEEN_COLUMN);
-    		final float bottom = ((widget.bottom * (this.mCellRowSpacing + Game.CELLS_BETWEEN_ROW)) + this.mCellRowSpacing + Game.CELLS_BETWEEN_ROW);
-			
-			this.mWalls.add(new RectF(left, top, right, bottom));
-    	}
-		
-    	//Icon walls
-    	for (int y = 0; y < this.mIconRows; y++) {
-    		for (int x = 0; x < this.mIconCols; x++) {
-    			boolean contained = false;
-    			for (final Rect widget : this.mWidgetLocations) {
-    				if (x >= widget.left && x <= widget.right && y >= widget.top && y <= widget.bottom) {
-    					contained = true;
-    					break;
-    				}
-    			}
-    			if (contained) {
-    				continue;
-    			}
-    			
-    			final float left = (x * (this.mCellColumnSpacing + Game.CELLS_BETWEEN_COLUMN)) + Game.CELLS_BETWEEN_COLUMN;
-    			final float top = (y * (this.mCellRowSpacing + Game.CELLS_BETWEEN_ROW)) + Game.CELLS_BETWEEN_ROW;
-    			final float right = left + this.mCellColumnSpacing;
-    			final float bottom = top + this.mCellRowSpacing;
-
-    			this.mWalls.add(new RectF(left, top, right, bottom));
-    		}
+    		this.mScaleX = (screenWidth - (this.mDotGridPaddingLeft + this.mDotGridPaddingRight)) / (this.mArenas.getCellsWide() * 1.0f);
+    		this.mScaleY = (screenHeight - (this.mDotGridPaddingTop + this.mDotGridPaddingBottom)) / (this.mArenas.getCellsTall() * 1.0f);
     	}
     	
     	if (Wallpaper.LOG_DEBUG) {
@@ -812,6 +1151,80 @@ public class Game implements SharedPreferences.OnSharedPreferenceChangeListener
     	}
     }
     
+    /**
+     * Decode the user background image, downsampled as far as possible while
+     * still being able to cover the screen in either orientation.
+     * 
+     * @param minSide Length (in pixels) the shorter side of the image must not fall below.
+     * @return Decoded image.
+     * @throws IOException if the image could not be read or decoded.
+     */
+    private Bitmap decodeBackground(final int minSide) throws IOException {
+    	final ContentResolver resolver = Wallpaper.CONTEXT.getContentResolver();
+    	final Uri uri = Uri.parse(this.mBackgroundPath);
+    	final BitmapFactory.Options options = new BitmapFactory.Options();
+    	
+    	//Read the dimensions only
+    	options.inJustDecodeBounds = true;
+    	InputStream stream = resolver.openInputStream(uri);
+    	try {
+    		BitmapFactory.decodeStream(stream, null, options);
+    	} finally {
+    		stream.close();
+    	}
+    	
+    	options.inSampleSize = 1;
+    	while (((options.outWidth / (options.inSampleSize * 2)) >= minSide) && ((options.outHeight / (options.inSampleSize * 2)) >= minSide)) {
+    		options.inSampleSize *= 2;
+    	}
+    	options.inJustDecodeBounds = false;
+    	
+    	stream = resolver.openInputStream(uri);
+    	try {
+    		final Bitmap bitmap = BitmapFactory.decodeStream(stream, null, options);
+    		if (bitmap == null) {
+    			throw new IOException("Unable to decode " + this.mBackgroundPath);
+    		}
+    		return bitmap;
+    	} finally {
+    		stream.close();
+    	}
+    }
+    
+    /**
+     * Scale an image to cover the screen and crop it to the center.
+     * 
+     * @param source Image.
+     * @param screenWidth Screen width.
+     * @param screenHeight Screen height.
+     * @return Image exactly the size of the screen.
+     */
+    private static Bitmap fitBackground(final Bitmap source, final int screenWidth, final int screenHeight) {
+		final float pictureAR = source.getWidth() / (source.getHeight() * 1.0f);
+		final float screenAR = screenWidth / (screenHeight * 1.0f);
+		int newWidth;
+		int newHeight;
+		int x;
+		int y;
+		
+		if (pictureAR > screenAR) {
+			//wider than tall related to the screen AR
+			newHeight = screenHeight;
+			newWidth = (int)(source.getWidth() * (screenHeight / (source.getHeight() * 1.0f)));
+			x = (newWidth - screenWidth) / 2;
+			y = 0;
+		} else {
+			//taller than wide related to the screen AR
+			newWidth = screenWidth;
+			newHeight = (int)(source.getHeight() * (screenWidth / (source.getWidth() * 1.0f)));
+			x = 0;
+			y = (newHeight - screenHeight) / 2;
+		}
+		
+		final Bitmap scaled = Bitmap.createScaledBitmap(source, newWidth, newHeight, false);
+		return Bitmap.createBitmap(scaled, x, y, screenWidth, screenHeight);
+    }
+    
     /**
      * Render the board and all entities on a Canvas.
      * 
@@ -831,75 +1244,15 @@ public class Game implements SharedPreferences.OnSharedPreferenceChangeListener
         c.scale(this.mScaleX, this.mScaleY);
         
         //Draw dots and walls
-        this.drawGameBoard(c);
+        this.mRenderer.setCanvas(c);
+        if (this.mReplayFrame >= 0) {
+        	//Count down from the start of the recorded history to the final crash
+        	final int ticksAgo = (this.mReplayFrame + this.mReplaySlowdown - 1) / this.mReplaySlowdown;
+        	this.mScene.draw(this.mArenas, ticksAgo, this.mRenderer);
+        } else {
+        	this.mScene.draw(this.mArenas, this.mRenderer);
+        }
         
         c.restore();
     }
-
-    /**
-     * Render the dots and walls.
-     * 
-     * @param c Canvas to draw on.
-     */
-    private void drawGameBoard(final Canvas c) {
-    	//draw light cycle
-    	for (final Point position : this.mPlayer) {
-    		c.drawRect(position.x, position.y, position.x + 1, position.y + 1, this.mPlayerForeground);
-    	}
-    	//draw opponent
-    	for (final Point position : this.mOpponent) {
-    		c.drawRect(position.x, position.y, position.x + 1, position.y + 1, this.mOpponentForeground);
-    	}
-    	
-        //draw walls if enabled
-        if (this.mIsDisplayingWalls) {
-        	for (final RectF wall : this.mWalls) {
-        		c.drawRect(wall, this.mWallsForeground);
-        	}
-        }
-    }
-
-    
-
-	/**
-	 * Update the point one step in the direction specified.
-	 * 
-	 * @param point Point of original coordinates.
-	 * @param direction Direction in which to move the point.
-	 * @return New point coordinates.
-	 */
-    private static Point move(final Point point, final Game.Direction direction) {
-    	final Point newPoint = new Point(point);
-    	if (direction != null) {
-	    	switch (direction) {
-	    		case NORTH:
-	    			newPoint.y -= 1;
-					break;
-					
-	    		case SOUTH:
-	    			newPoint.y += 1;
-					break;
-					
-	    		case WEST:
-	    			newPoint.x -= 1;
-					break;
-					
-	    		case EAST:
-	    			newPoint.x += 1;
-					break;
-	    	}
-    	}
-    	return newPoint;
-    }
-    
-    /**
-     * Determine whether two points represent the same coordinate.
-     * 
-     * @param one Point one.
-     * @param two Point two.
-     * @return Boolean.
-     */
-    private static boolean pointEquals(final Point one, final Point two) {
-    	return ((one.x == two.x) && (one.y == two.y));
-    }
 }
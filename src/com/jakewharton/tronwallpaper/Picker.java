@@ -159,6 +159,17 @@ public class Picker extends Activity {
             }
 		}
 
+		@Override
+		protected void onDetachedFromWindow() {
+			super.onDetachedFromWindow();
+			
+			//Activity is going away so stop drawing and let the game go
+			this.mIsVisible = false;
+			Picker.this.mHandler.removeCallbacks(this.mDraw);
+			Wallpaper.PREFERENCES.unregisterOnSharedPreferenceChangeListener(this);
+			this.mGame.shutdown();
+		}
+		
 		@Override
 		public void onWindowFocusChanged(final boolean hasWindowFocus) {
 			super.onWindowFocusChanged(hasWindowFocus);
@@ -445,6 +445,24 @@ public class Preferences extends PreferenceActivity implements SharedPreferences
 
 		//user controllable
 		editor.remove(resources.getString(R.string.settings_game_usercontrol_key));
+		//game mode
+		editor.remove(resources.getString(R.string.settings_game_mode_key));
+		//endless trail length
+		editor.remove(resources.getString(R.string.settings_game_traillength_key));
+		//light cycles
+		editor.remove(resources.getString(R.string.settings_game_cycles_key));
+		//arenas
+		editor.remove(resources.getString(R.string.settings_game_arenas_key));
+		//opponent speed
+		editor.remove(resources.getString(R.string.settings_game_opponentspeed_key));
+		//opponent ai
+		editor.remove(resources.getString(R.string.settings_game_opponentai_key));
+		//instant replay
+		editor.remove(resources.getString(R.string.settings_game_instantreplay_key));
+		//replay slow motion
+		editor.remove(resources.getString(R.string.settings_game_replayslowdown_key));
+		//record rounds
+		editor.remove(resources.getString(R.string.settings_game_recordrounds_key));
 		//fps
 		editor.remove(resources.getString(R.string.settings_display_fps_key));
 		//show walls
@@ -457,6 +475,8 @@ public class Preferences extends PreferenceActivity implements SharedPreferences
 		editor.remove(resources.getString(R.string.settings_display_rowspacing_key));
 		//icon col spacing
 		editor.remove(resources.getString(R.string.settings_display_colspacing_key));
+		//cell resolution
+		editor.remove(resources.getString(R.string.settings_display_resolution_key));
 		//widget locations
 		editor.remove(resources.getString(R.string.settings_display_widgetlocations_key));
 		//padding top
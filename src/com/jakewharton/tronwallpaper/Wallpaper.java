@@ -1,6 +1,7 @@
 package com.jakewharton.tronwallpaper;
 
 import com.jakewharton.tronwallpaper.R;
+import com.jakewharton.tronwallpaper.core.Direction;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.content.res.Resources;
@@ -66,6 +67,11 @@ public class Wallpaper extends WallpaperService {
 	 * Maximum time between taps that will reset the game.
 	 */
 	/*package*/static final long RESET_THRESHOLD = 100;
+	
+	/**
+	 * Maximum time (in milliseconds) of play to fast-forward when the wallpaper becomes visible again.
+	 */
+	/*package*/static final long MAX_CATCH_UP = 10000;
     
     
     
@@ -162,6 +168,11 @@ public class Wallpaper extends WallpaperService {
          * The system milliseconds of the last user touch.
          */
         private long mLastTouch;
+        
+        /**
+         * The system milliseconds when the wallpaper was last hidden, or 0 if never.
+         */
+        private long mHiddenTime;
 
         /**
          * A runnable which automates the frame rendering.
@@ -190,6 +201,9 @@ public class Wallpaper extends WallpaperService {
             Wallpaper.PREFERENCES.registerOnSharedPreferenceChangeListener(this);
             this.onSharedPreferenceChanged(Wallpaper.PREFERENCES, null);
             
+            //Pick up where the previous engine left off
+            this.mGame.restoreSnapshot();
+            
         	if (Wallpaper.LOG_VERBOSE) {
         		Log.v(LightCycleEngine.TAG, "< LightCycleEngine()");
         	}
@@ -235,13 +249,26 @@ public class Wallpaper extends WallpaperService {
         public void onVisibilityChanged(final boolean visible) {
             this.mIsVisible = visible;
             if (visible) {
+            	if (Wallpaper.AUTO_FPS && (this.mHiddenTime > 0)) {
+            		//Catch up on the frames that were missed while hidden
+            		final long hidden = Math.min(System.currentTimeMillis() - this.mHiddenTime, Wallpaper.MAX_CATCH_UP);
+            		if (hidden > 0) {
+            			this.mGame.advance((int)((hidden * this.mFPS) / Wallpaper.MILLISECONDS_IN_SECOND));
+            		}
+            		this.mHiddenTime = 0;
+            	}
+            	
                 this.draw();
                 
                 if (Wallpaper.AUTO_FPS) {
                 	this.newFrame();
                 }
             } else {
+            	this.mHiddenTime = System.currentTimeMillis();
                 Wallpaper.this.mHandler.removeCallbacks(this.mDraw);
+                
+                //The engine may be recreated at any point while hidden
+                this.mGame.saveSnapshot();
             }
         }
         
@@ -259,6 +286,8 @@ public class Wallpaper extends WallpaperService {
         public void onDestroy() {
             super.onDestroy();
             Wallpaper.this.mHandler.removeCallbacks(mDraw);
+            this.mGame.saveSnapshot();
+            this.mGame.shutdown();
         }
         
         @Override
@@ -276,15 +305,15 @@ public class Wallpaper extends WallpaperService {
 	        		
 	        		if (Math.abs(deltaX) > Math.abs(deltaY)) {
 	        			if (deltaX > 0) {
-	        				this.mGame.setWantsToGo(Game.Direction.WEST);
+	        				this.mGame.setWantsToGo(Direction.WEST);
 	        			} else {
-	        				this.mGame.setWantsToGo(Game.Direction.EAST);
+	        				this.mGame.setWantsToGo(Direction.EAST);
 	        			}
 	        		} else {
 	        			if (deltaY > 0) {
-	        				this.mGame.setWantsToGo(Game.Direction.NORTH);
+	        				this.mGame.setWantsToGo(Direction.NORTH);
 	        			} else {
-	        				this.mGame.setWantsToGo(Game.Direction.SOUTH);
+	        				this.mGame.setWantsToGo(Direction.SOUTH);
 	        			}
 	        		}
         		}
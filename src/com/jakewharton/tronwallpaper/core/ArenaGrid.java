@@ -0,0 +1,710 @@
+package com.jakewharton.tronwallpaper.core;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A launcher layout split into tiles, each with its own independent
+ * {@link Simulation}.
+ * 
+ * Arenas share no state so every tick steps them concurrently on a fixed
+ * set of worker threads, the calling thread among them, and waits for all
+ * of them to finish before returning. Drawing therefore never sees an
+ * arena mid-tick. The workers are woken and waited for through a single
+ * monitor and report through preallocated arrays, so a tick allocates
+ * nothing.
+ * 
+ * @author Jake Wharton
+ */
+public class ArenaGrid {
+	/**
+	 * Name prefix of the worker threads.
+	 */
+	private static final String THREAD_NAME = "TronWallpaper.Arena-";
+	
+	/**
+	 * Number of numbers stored for the icon bounds of an arena (L, T, R, B).
+	 */
+	private static final int BOUNDS_LENGTH = 4;
+	
+	/**
+	 * Version of the snapshot format. Snapshots of any other version are ignored.
+	 */
+	private static final int SNAPSHOT_VERSION = 2;
+	
+	
+	
+	/**
+	 * Layout of the whole launcher.
+	 */
+	private Layout mLayout;
+	
+	/**
+	 * Number of tiles the layout is split into on each side.
+	 */
+	private final int mTiles;
+	
+	/**
+	 * Independent simulation of each tile.
+	 */
+	private final Simulation[] mArenas;
+	
+	/**
+	 * Icon bounds of each arena on the launcher, packed as L, T, R, B (exclusive).
+	 */
+	private final int[] mArenaIcons;
+	
+	/**
+	 * Horizontal offset (in cells) of each arena on the launcher board.
+	 */
+	private final int[] mArenaLefts;
+	
+	/**
+	 * Vertical offset (in cells) of each arena on the launcher board.
+	 */
+	private final int[] mArenaTops;
+	
+	/**
+	 * Worker threads besides the calling one, or <code>null</code> if arenas are only stepped on the calling thread.
+	 */
+	private final Thread[] mWorkers;
+	
+	/**
+	 * Number of threads arenas are stepped on, including the calling thread.
+	 */
+	private final int mThreadCount;
+	
+	/**
+	 * Guards the hand-off of each step to the workers and back.
+	 */
+	private final Object mStepLock;
+	
+	/**
+	 * Number of steps handed to the workers. A worker steps its arenas each time it changes.
+	 */
+	private long mStepCount;
+	
+	/**
+	 * Number of ticks the current step advances each arena.
+	 */
+	private int mPendingTicks;
+	
+	/**
+	 * Number of workers which have not finished the current step.
+	 */
+	private int mRunningWorkers;
+	
+	/**
+	 * First failure of a worker in the current step, or <code>null</code>.
+	 */
+	private Throwable mFailure;
+	
+	/**
+	 * Whether or not the workers have been told to stop.
+	 */
+	private boolean mIsShutdown;
+	
+	/**
+	 * Number of rounds which ended in each arena during the current step.
+	 */
+	private final int[] mRounds;
+	
+	
+	
+	/**
+	 * Create a new grid of arenas. The boards must be initialized with
+	 * {@link #newBoard()} before the first {@link #tick()}.
+	 * 
+	 * @param layout Layout of the whole launcher.
+	 * @param tiles Number of tiles to split the layout into on each side. Limited to the number of icon rows and columns.
+	 * @param cycleCount Number of light cycles in each arena.
+	 * @param seed Seed of the first arena. Seeds of the other arenas are derived from it.
+	 * @param threads Number of worker threads. One or fewer steps arenas on the calling thread.
+	 */
+	public ArenaGrid(final Layout layout, final int tiles, final int cycleCount, final long seed, final int threads) {
+		if (tiles < 1) {
+			throw new IllegalArgumentException("Tiles must be at least one.");
+		}
+		
+		this.mLayout = layout;
+		this.mTiles = tiles;
+		
+		final int across = Math.min(tiles, layout.getIconCols());
+		final int down = Math.min(tiles, layout.getIconRows());
+		final int count = across * down;
+		this.mArenas = new Simulation[count];
+		this.mArenaIcons = new int[count * ArenaGrid.BOUNDS_LENGTH];
+		this.mArenaLefts = new int[count];
+		this.mArenaTops = new int[count];
+		this.mRounds = new int[count];
+		this.mStepLock = new Object();
+		
+		final Rng seeds = new Rng(seed);
+		for (int y = 0; y < down; y++) {
+			final int top = (y * layout.getIconRows()) / down;
+			final int bottom = ((y + 1) * layout.getIconRows()) / down;
+			for (int x = 0; x < across; x++) {
+				final int left = (x * layout.getIconCols()) / across;
+				final int right = ((x + 1) * layout.getIconCols()) / across;
+				final int arena = (y * across) + x;
+				this.mArenaIcons[(arena * ArenaGrid.BOUNDS_LENGTH)] = left;
+				this.mArenaIcons[(arena * ArenaGrid.BOUNDS_LENGTH) + 1] = top;
+				this.mArenaIcons[(arena * ArenaGrid.BOUNDS_LENGTH) + 2] = right;
+				this.mArenaIcons[(arena * ArenaGrid.BOUNDS_LENGTH) + 3] = bottom;
+				
+				final Layout tile = ArenaGrid.tileLayout(layout, left, top, right, bottom);
+				this.mArenas[arena] = new Simulation(tile, cycleCount, (arena == 0) ? seed : seeds.nextLong());
+				this.mArenaLefts[arena] = left * layout.getIconCellsWidth();
+				this.mArenaTops[arena] = top * layout.getIconCellsHeight();
+			}
+		}
+		
+		if ((threads > 1) && (count > 1)) {
+			this.mThreadCount = Math.min(threads, count);
+			this.mWorkers = new Thread[this.mThreadCount - 1];
+			for (int worker = 0; worker < this.mWorkers.length; worker++) {
+				//The calling thread steps the first share of arenas
+				final int share = worker + 1;
+				this.mWorkers[worker] = new Thread(new Runnable() {
+					public void run() {
+						ArenaGrid.this.runWorker(share);
+					}
+				}, ArenaGrid.THREAD_NAME + worker);
+				this.mWorkers[worker].setDaemon(true);
+				this.mWorkers[worker].start();
+			}
+		} else {
+			this.mThreadCount = 1;
+			this.mWorkers = null;
+		}
+	}
+	
+	
+	
+	/**
+	 * Cut the layout of a tile out of the layout of the whole launcher. A
+	 * tile only owns the gaps before its icons, plus the trailing gaps when
+	 * it touches the right or bottom edge of the launcher, so that tiles
+	 * placed at multiples of the icon size never overlap.
+	 * 
+	 * @param layout Layout of the whole launcher.
+	 * @param left Left-most icon column of the tile.
+	 * @param top Top-most icon row of the tile.
+	 * @param right Icon column after the right-most one of the tile.
+	 * @param bottom Icon row after the bottom-most one of the tile.
+	 * @return Tile layout.
+	 */
+	private static Layout tileLayout(final Layout layout, final int left, final int top, final int right, final int bottom) {
+		return new Layout(bottom - top, right - left, layout.getCellRowSpacing(), layout.getCellColumnSpacing(), layout.getResolution(), layout.hasTrailingColumnGap() && (right == layout.getIconCols()), layout.hasTrailingRowGap() && (bottom == layout.getIconRows()), ArenaGrid.clipWidgets(layout, left, top, right, bottom));
+	}
+	
+	/**
+	 * Get the widgets which overlap a tile, clipped to it and relative to its origin.
+	 * 
+	 * @param layout Layout of the whole launcher.
+	 * @param left Left-most icon column of the tile.
+	 * @param top Top-most icon row of the tile.
+	 * @param right Icon column after the right-most one of the tile.
+	 * @param bottom Icon row after the bottom-most one of the tile.
+	 * @return Widgets.
+	 */
+	private static List<Layout.Widget> clipWidgets(final Layout layout, final int left, final int top, final int right, final int bottom) {
+		final List<Layout.Widget> widgets = new ArrayList<Layout.Widget>();
+		for (final Layout.Widget widget : layout.getWidgets()) {
+			final int widgetLeft = Math.max(widget.left, left);
+			final int widgetTop = Math.max(widget.top, top);
+			final int widgetRight = Math.min(widget.right, right - 1);
+			final int widgetBottom = Math.min(widget.bottom, bottom - 1);
+			if ((widgetLeft <= widgetRight) && (widgetTop <= widgetBottom)) {
+				widgets.add(new Layout.Widget(widgetLeft - left, widgetTop - top, widgetRight - left, widgetBottom - top));
+			}
+		}
+		return widgets;
+	}
+	
+	/**
+	 * Step a worker's share of arenas every time a step is handed out, until shut down.
+	 * 
+	 * @param share Share of arenas, between one and the thread count.
+	 */
+	private void runWorker(final int share) {
+		long steps = 0;
+		while (true) {
+			final int ticks;
+			synchronized (this.mStepLock) {
+				while (!this.mIsShutdown && (this.mStepCount == steps)) {
+					try {
+						this.mStepLock.wait();
+					} catch (final InterruptedException e) {
+						//Only a shutdown stops a worker, otherwise a step could wait on it forever
+					}
+				}
+				if (this.mIsShutdown) {
+					return;
+				}
+				steps = this.mStepCount;
+				ticks = this.mPendingTicks;
+			}
+			
+			Throwable failure = null;
+			try {
+				this.advanceShare(share, ticks);
+			} catch (final Throwable e) {
+				failure = e;
+			}
+			
+			synchronized (this.mStepLock) {
+				if ((failure != null) && (this.mFailure == null)) {
+					this.mFailure = failure;
+				}
+				this.mRunningWorkers -= 1;
+				if (this.mRunningWorkers == 0) {
+					this.mStepLock.notifyAll();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Advance a share of the arenas, every arena whose index is the share modulo the thread count.
+	 * 
+	 * @param share Share of arenas, less than the thread count.
+	 * @param ticks Number of ticks to advance.
+	 */
+	private void advanceShare(final int share, final int ticks) {
+		for (int arena = share; arena < this.mArenas.length; arena += this.mThreadCount) {
+			this.mRounds[arena] = this.mArenas[arena].advance(ticks);
+		}
+	}
+	
+	
+	
+	/**
+	 * Get the layout of the whole launcher.
+	 * 
+	 * @return Layout.
+	 */
+	public Layout getLayout() {
+		return this.mLayout;
+	}
+	
+	/**
+	 * Get the number of tiles the layout was split into on each side.
+	 * 
+	 * @return Tile count as requested, before limiting to the icon rows and columns.
+	 */
+	public int getTiles() {
+		return this.mTiles;
+	}
+	
+	/**
+	 * Get the number of cells on the launcher board horizontally.
+	 * 
+	 * @return Cell count.
+	 */
+	public int getCellsWide() {
+		return this.mLayout.getCellsWide();
+	}
+	
+	/**
+	 * Get the number of cells on the launcher board vertically.
+	 * 
+	 * @return Cell count.
+	 */
+	public int getCellsTall() {
+		return this.mLayout.getCellsTall();
+	}
+	
+	/**
+	 * Get the number of light cycles in each arena.
+	 * 
+	 * @return Cycle count.
+	 */
+	public int getCycleCount() {
+		return this.mArenas[0].getCycleCount();
+	}
+	
+	/**
+	 * Get the number of arenas.
+	 * 
+	 * @return Arena count.
+	 */
+	public int getArenaCount() {
+		return this.mArenas.length;
+	}
+	
+	/**
+	 * Get the simulation of an arena. It must not be modified while the grid is ticking.
+	 * 
+	 * @param arena Arena number.
+	 * @return Simulation.
+	 */
+	public Simulation getArena(final int arena) {
+		return this.mArenas[arena];
+	}
+	
+	/**
+	 * Get the horizontal offset of an arena on the launcher board.
+	 * 
+	 * @param arena Arena number.
+	 * @return Offset, in cells.
+	 */
+	public int getArenaLeft(final int arena) {
+		return this.mArenaLefts[arena];
+	}
+	
+	/**
+	 * Get the vertical offset of an arena on the launcher board.
+	 * 
+	 * @param arena Arena number.
+	 * @return Offset, in cells.
+	 */
+	public int getArenaTop(final int arena) {
+		return this.mArenaTops[arena];
+	}
+	
+	/**
+	 * Set whether or not the state checksum of every arena is updated every tick.
+	 * 
+	 * @param isChecksumming Boolean.
+	 */
+	public void setIsChecksumming(final boolean isChecksumming) {
+		for (final Simulation arena : this.mArenas) {
+			arena.setIsChecksumming(isChecksumming);
+		}
+	}
+	
+	/**
+	 * Set the maximum number of cells in a trail in every arena.
+	 * 
+	 * @param maxTrailLength Cell count, or zero for unbounded trails.
+	 */
+	public void setMaxTrailLength(final int maxTrailLength) {
+		for (final Simulation arena : this.mArenas) {
+			arena.setMaxTrailLength(maxTrailLength);
+		}
+	}
+	
+	/**
+	 * Set the speed of a cycle in every arena.
+	 * 
+	 * @param cycle Cycle number.
+	 * @param speed Cells moved per tick.
+	 */
+	public void setSpeed(final int cycle, final float speed) {
+		for (final Simulation arena : this.mArenas) {
+			arena.setSpeed(cycle, speed);
+		}
+	}
+	
+	/**
+	 * Set the AI driving a cycle in every arena.
+	 * 
+	 * @param cycle Cycle number.
+	 * @param ai AI.
+	 */
+	public void setAi(final int cycle, final int ai) {
+		for (final Simulation arena : this.mArenas) {
+			arena.setAi(cycle, ai);
+		}
+	}
+	
+	/**
+	 * Set the time searching AIs may think for in a single tick of the
+	 * whole grid. It is split between the arenas each thread steps in turn.
+	 * 
+	 * @param nanoseconds Nanoseconds.
+	 */
+	public void setAiBudget(final long nanoseconds) {
+		if (nanoseconds < 0) {
+			throw new IllegalArgumentException("AI budget must not be negative.");
+		}
+		final int arenasPerThread = (this.mArenas.length + this.mThreadCount - 1) / this.mThreadCount;
+		for (final Simulation arena : this.mArenas) {
+			arena.setAiBudget(nanoseconds / arenasPerThread);
+		}
+	}
+	
+	/**
+	 * Set the user desired direction of the player in every arena.
+	 * 
+	 * @param direction Direction.
+	 */
+	public void setWantsToGo(final Direction direction) {
+		for (final Simulation arena : this.mArenas) {
+			arena.setWantsToGo(direction);
+		}
+	}
+	
+	/**
+	 * Record the most recent moves of every arena so that they can be
+	 * rewound. Histories are only reallocated when the length changes.
+	 * 
+	 * @param ticks Number of most recent ticks to keep, or zero to stop recording.
+	 */
+	public void setRewindTicks(final int ticks) {
+		for (final Simulation arena : this.mArenas) {
+			final Rewind rewind = arena.getRewind();
+			if (ticks <= 0) {
+				arena.setRewind(null);
+			} else if ((rewind == null) || (rewind.getCapacity() != ticks)) {
+				arena.setRewind(new Rewind(arena.getCycleCount(), ticks));
+			}
+		}
+	}
+	
+	/**
+	 * Set whether or not a round which ends in any arena is left on the board
+	 * until {@link #startHeldRounds()}.
+	 * 
+	 * @param isHoldingRounds Boolean.
+	 */
+	public void setIsHoldingRounds(final boolean isHoldingRounds) {
+		for (final Simulation arena : this.mArenas) {
+			arena.setIsHoldingRounds(isHoldingRounds);
+		}
+	}
+	
+	/**
+	 * Get whether or not a round has ended in any arena and is being held.
+	 * 
+	 * @return Boolean.
+	 */
+	public boolean isAnyRoundOver() {
+		for (final Simulation arena : this.mArenas) {
+			if (arena.isRoundOver()) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Start a new round in every arena whose round has ended and is being held.
+	 */
+	public void startHeldRounds() {
+		for (final Simulation arena : this.mArenas) {
+			if (arena.isRoundOver()) {
+				arena.newGame();
+			}
+		}
+	}
+	
+	/**
+	 * Set whether or not every round in every arena is recorded.
+	 * 
+	 * @param isRecording Boolean.
+	 */
+	public void setIsRecording(final boolean isRecording) {
+		for (final Simulation arena : this.mArenas) {
+			arena.setIsRecording(isRecording);
+		}
+	}
+	
+	/**
+	 * Write the most recent round recorded whole in every arena.
+	 * 
+	 * @param out Output.
+	 * @throws IOException if the output could not be written.
+	 */
+	public void writeLastRecordings(final DataOutput out) throws IOException {
+		out.writeInt(this.mArenas.length);
+		for (final Simulation arena : this.mArenas) {
+			final Recording recording = arena.getLastRecording();
+			out.writeBoolean(recording != null);
+			if (recording != null) {
+				recording.write(out);
+			}
+		}
+	}
+	
+	/**
+	 * Test whether every arena can be patched in place to another layout.
+	 * Only the widgets may differ.
+	 * 
+	 * @param layout Layout of the whole launcher.
+	 * @return Boolean.
+	 */
+	public boolean isPatchable(final Layout layout) {
+		return (layout.getIconRows() == this.mLayout.getIconRows())
+				&& (layout.getIconCols() == this.mLayout.getIconCols())
+				&& (layout.getCellRowSpacing() == this.mLayout.getCellRowSpacing())
+				&& (layout.getCellColumnSpacing() == this.mLayout.getCellColumnSpacing())
+				&& (layout.getResolution() == this.mLayout.getResolution())
+				&& (layout.hasTrailingColumnGap() == this.mLayout.hasTrailingColumnGap())
+				&& (layout.hasTrailingRowGap() == this.mLayout.hasTrailingRowGap());
+	}
+	
+	/**
+	 * Change the widgets of every arena without ending their rounds. Arenas
+	 * whose clipped widgets are unchanged are not touched.
+	 * 
+	 * @param layout Layout of the whole launcher which differs only in its widgets.
+	 */
+	public void patchLayout(final Layout layout) {
+		if (!this.isPatchable(layout)) {
+			throw new IllegalArgumentException("Layout must only differ in its widgets.");
+		}
+		
+		for (int arena = 0; arena < this.mArenas.length; arena++) {
+			final int left = this.mArenaIcons[(arena * ArenaGrid.BOUNDS_LENGTH)];
+			final int top = this.mArenaIcons[(arena * ArenaGrid.BOUNDS_LENGTH) + 1];
+			final int right = this.mArenaIcons[(arena * ArenaGrid.BOUNDS_LENGTH) + 2];
+			final int bottom = this.mArenaIcons[(arena * ArenaGrid.BOUNDS_LENGTH) + 3];
+			final Layout current = this.mArenas[arena].getLayout();
+			final Layout tile = ArenaGrid.tileLayout(layout, left, top, right, bottom);
+			if (!tile.equals(current)) {
+				this.mArenas[arena].patchLayout(tile);
+			}
+		}
+		this.mLayout = layout;
+	}
+	
+	/**
+	 * Reset the board and game state of every arena.
+	 */
+	public void newBoard() {
+		for (final Simulation arena : this.mArenas) {
+			arena.newBoard();
+		}
+	}
+	
+	/**
+	 * Fill the spare board of every arena. May run on another thread while
+	 * the grid keeps ticking, but not at the same time as {@link #swapBoard()}.
+	 */
+	public void prepareBoard() {
+		for (final Simulation arena : this.mArenas) {
+			arena.prepareBoard();
+		}
+	}
+	
+	/**
+	 * Swap in the boards filled by {@link #prepareBoard()} in every arena.
+	 */
+	public void swapBoard() {
+		for (final Simulation arena : this.mArenas) {
+			arena.swapBoard();
+		}
+	}
+	
+	/**
+	 * Write the layout and the state of the round in progress in every arena.
+	 * 
+	 * @param out Output.
+	 * @throws IOException if the output could not be written.
+	 */
+	public void writeSnapshot(final DataOutput out) throws IOException {
+		out.writeInt(ArenaGrid.SNAPSHOT_VERSION);
+		this.mLayout.write(out);
+		out.writeInt(this.mTiles);
+		out.writeInt(this.getCycleCount());
+		for (final Simulation arena : this.mArenas) {
+			arena.writeSnapshot(out);
+		}
+	}
+	
+	/**
+	 * Restore every arena from a snapshot written by
+	 * {@link #writeSnapshot(DataOutput)}. Snapshots of another layout, tile
+	 * count or cycle count are ignored and leave the arenas untouched.
+	 * 
+	 * If the snapshot is rejected part way the arenas must be reset with
+	 * {@link #newBoard()}. Must not run at the same time as
+	 * {@link #prepareBoard()} on another thread.
+	 * 
+	 * @param in Input.
+	 * @return Whether or not the snapshot matched and was restored.
+	 * @throws IOException if the input could not be read or does not fit the arenas.
+	 */
+	public boolean readSnapshot(final DataInput in) throws IOException {
+		if (in.readInt() != ArenaGrid.SNAPSHOT_VERSION) {
+			return false;
+		}
+		if (!Layout.read(in).equals(this.mLayout) || (in.readInt() != this.mTiles) || (in.readInt() != this.getCycleCount())) {
+			return false;
+		}
+		for (final Simulation arena : this.mArenas) {
+			arena.readSnapshot(in);
+		}
+		return true;
+	}
+	
+	/**
+	 * Advance every arena by one tick.
+	 * 
+	 * @return Number of rounds which ended.
+	 */
+	public int tick() {
+		return this.advance(1);
+	}
+	
+	/**
+	 * Advance every arena many times without rendering. Returns once every
+	 * arena has finished.
+	 * 
+	 * @param ticks Number of ticks to advance.
+	 * @return Number of rounds which ended along the way, across all arenas.
+	 */
+	public int advance(final int ticks) {
+		if (this.mWorkers == null) {
+			int rounds = 0;
+			for (final Simulation arena : this.mArenas) {
+				rounds += arena.advance(ticks);
+			}
+			return rounds;
+		}
+		
+		synchronized (this.mStepLock) {
+			if (this.mIsShutdown) {
+				throw new IllegalStateException("Arenas have been shut down.");
+			}
+			this.mPendingTicks = ticks;
+			this.mRunningWorkers = this.mWorkers.length;
+			this.mFailure = null;
+			this.mStepCount += 1;
+			this.mStepLock.notifyAll();
+		}
+		
+		try {
+			this.advanceShare(0, ticks);
+		} finally {
+			//Workers must finish even if this share failed so drawing never sees an arena mid-tick
+			boolean isInterrupted = false;
+			synchronized (this.mStepLock) {
+				while (this.mRunningWorkers > 0) {
+					try {
+						this.mStepLock.wait();
+					} catch (final InterruptedException e) {
+						isInterrupted = true;
+					}
+				}
+			}
+			if (isInterrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		if (this.mFailure != null) {
+			throw new IllegalStateException("Arena failed to tick.", this.mFailure);
+		}
+		
+		int rounds = 0;
+		for (int arena = 0; arena < this.mRounds.length; arena++) {
+			rounds += this.mRounds[arena];
+		}
+		return rounds;
+	}
+	
+	/**
+	 * Stop the worker threads. The grid can no longer be ticked.
+	 */
+	public void shutdown() {
+		synchronized (this.mStepLock) {
+			this.mIsShutdown = true;
+			this.mStepLock.notifyAll();
+		}
+	}
+}
@@ -0,0 +1,169 @@
+package com.jakewharton.tronwallpaper.core;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of blank boards (walls and empty cells, no trails) keyed by layout.
+ * 
+ * @author Jake Wharton
+ */
+public final class BoardTemplates {
+	/**
+	 * Blank board for a single layout along with its index of free cells.
+	 * All arrays are shared and must not be modified.
+	 * 
+	 * @author Jake Wharton
+	 */
+	public static final class Template {
+		/**
+		 * Flattened board including the sentinel wall border.
+		 */
+		public final byte[] cells;
+		
+		/**
+		 * Board indices of every blank cell.
+		 */
+		public final int[] freeCells;
+		
+		
+		
+		/**
+		 * Create a template from a blank board.
+		 * 
+		 * @param cells Flattened board including the sentinel wall border.
+		 */
+		/*package*/Template(final byte[] cells) {
+			this.cells = cells;
+			
+			int count = 0;
+			for (int i = 0; i < cells.length; i++) {
+				if (cells[i] == Simulation.CELL_BLANK) {
+					count += 1;
+				}
+			}
+			this.freeCells = new int[count];
+			count = 0;
+			for (int i = 0; i < cells.length; i++) {
+				if (cells[i] == Simulation.CELL_BLANK) {
+					this.freeCells[count] = i;
+					count += 1;
+				}
+			}
+		}
+	}
+	
+	
+	
+	/**
+	 * Maximum number of layouts to keep blank boards for.
+	 */
+	private static final int MAX_SIZE = 8;
+	
+	/**
+	 * Maximum number of cells across all cached blank boards. The most
+	 * recent board is always kept, however large.
+	 */
+	private static final int MAX_CELLS = 1 << 22;
+	
+	/**
+	 * Least-recently-used cache of blank boards.
+	 */
+	private static final Map<Layout, BoardTemplates.Template> CACHE = new LinkedHashMap<Layout, BoardTemplates.Template>(BoardTemplates.MAX_SIZE, 0.75f, true);
+	
+	/**
+	 * Number of cells across all cached blank boards.
+	 */
+	private static int CELLS = 0;
+	
+	
+	
+	private BoardTemplates() {
+		//No instances
+	}
+	
+	
+	
+	/**
+	 * Get the blank board for a layout, building it if it has not been seen
+	 * recently.
+	 * 
+	 * @param layout Layout.
+	 * @return Shared template.
+	 */
+	public static BoardTemplates.Template get(final Layout layout) {
+		synchronized (BoardTemplates.CACHE) {
+			BoardTemplates.Template template = BoardTemplates.CACHE.get(layout);
+			if (template == null) {
+				template = new BoardTemplates.Template(BoardTemplates.build(layout));
+				BoardTemplates.CACHE.put(layout, template);
+				BoardTemplates.CELLS += template.cells.length;
+				
+				//Evict the least-recently-used boards, but never the new one
+				final Iterator<Map.Entry<Layout, BoardTemplates.Template>> eldest = BoardTemplates.CACHE.entrySet().iterator();
+				while ((BoardTemplates.CACHE.size() > 1) && ((BoardTemplates.CACHE.size() > BoardTemplates.MAX_SIZE) || (BoardTemplates.CELLS > BoardTemplates.MAX_CELLS))) {
+					BoardTemplates.CELLS -= eldest.next().getValue().cells.length;
+					eldest.remove();
+				}
+			}
+			return template;
+		}
+	}
+	
+	/**
+	 * Build the blank board for a layout.
+	 * 
+	 * @param layout Layout.
+	 * @return Flattened board including the sentinel wall border.
+	 */
+	private static byte[] build(final Layout layout) {
+		final int border = Simulation.CELLS_BORDER;
+		final int cellsWide = layout.getCellsWide();
+		final int cellsTall = layout.getCellsTall();
+		final int stride = cellsWide + (2 * border);
+		final int iconCellsWidth = layout.getIconCellsWidth();
+		final int iconCellsHeight = layout.getIconCellsHeight();
+		final int cellsBetweenColumn = layout.getCellsBetweenColumn();
+		final int cellsBetweenRow = layout.getCellsBetweenRow();
+		final byte[] board = new byte[stride * (cellsTall + (2 * border))];
+		
+		//The border and icons are walls, which is the default value
+		if (Simulation.CELL_WALL != 0) {
+			throw new IllegalStateException("Wall cells are expected to be zero.");
+		}
+		
+		//There are only two kinds of rows: the gaps between icon rows are
+		//entirely blank and icon rows alternate gaps and icons.
+		final byte[] iconRow = new byte[cellsWide];
+		for (int x = 0; x < cellsWide; x++) {
+			if ((x % iconCellsWidth) < cellsBetweenColumn) {
+				iconRow[x] = Simulation.CELL_BLANK;
+			}
+		}
+		final byte[] gapRow = new byte[cellsWide];
+		for (int x = 0; x < cellsWide; x++) {
+			gapRow[x] = Simulation.CELL_BLANK;
+		}
+		for (int y = 0; y < cellsTall; y++) {
+			final byte[] row = ((y % iconCellsHeight) < cellsBetweenRow) ? gapRow : iconRow;
+			System.arraycopy(row, 0, board, ((y + border) * stride) + border, cellsWide);
+		}
+		
+		//Remove board under widgets
+		for (final Layout.Widget widget : layout.getWidgets()) {
+			final int left = (widget.left * iconCellsWidth) + cellsBetweenColumn;
+			final int top = (widget.top * iconCellsHeight) + cellsBetweenRow;
+			final int right = (widget.right * iconCellsWidth) + iconCellsWidth - 1;
+			final int bottom = (widget.bottom * iconCellsHeight) + iconCellsHeight - 1;
+			for (int y = top; y <= bottom; y++) {
+				final int offset = ((y + border) * stride) + border;
+				for (int x = left; x <= right; x++) {
+					board[offset + x] = Simulation.CELL_WALL;
+				}
+			}
+		}
+		
+		return board;
+	}
+}
@@ -0,0 +1,159 @@
+package com.jakewharton.tronwallpaper.core;
+
+/**
+ * Priority queue of light cycles ordered by the time of their next move.
+ * 
+ * This is a binary min-heap over preallocated primitive arrays so scheduling
+ * never allocates. Cycles due at the same time are ordered by cycle number
+ * which keeps the simulation deterministic.
+ * 
+ * @author Jake Wharton
+ */
+/*package*/final class CycleScheduler {
+	/**
+	 * Heap of scheduled cycle numbers.
+	 */
+	private final int[] mHeap;
+	
+	/**
+	 * Time each cycle is next due to move, indexed by cycle number.
+	 */
+	private final long[] mDueTimes;
+	
+	/**
+	 * Number of scheduled cycles.
+	 */
+	private int mSize;
+	
+	
+	
+	/**
+	 * Create a new, empty scheduler.
+	 * 
+	 * @param capacity Number of cycles which can be scheduled.
+	 */
+	/*package*/CycleScheduler(final int capacity) {
+		this.mHeap = new int[capacity];
+		this.mDueTimes = new long[capacity];
+	}
+	
+	
+	
+	/**
+	 * Remove every scheduled cycle.
+	 */
+	/*package*/void clear() {
+		this.mSize = 0;
+	}
+	
+	/**
+	 * Get whether or not no cycles are scheduled.
+	 * 
+	 * @return Boolean.
+	 */
+	/*package*/boolean isEmpty() {
+		return (this.mSize == 0);
+	}
+	
+	/**
+	 * Schedule a cycle which is not currently scheduled.
+	 * 
+	 * @param cycle Cycle number.
+	 * @param dueTime Time at which the cycle should move.
+	 */
+	/*package*/void schedule(final int cycle, final long dueTime) {
+		this.mDueTimes[cycle] = dueTime;
+		this.mHeap[this.mSize] = cycle;
+		this.siftUp(this.mSize);
+		this.mSize += 1;
+	}
+	
+	/**
+	 * Get the time at which a scheduled cycle is due.
+	 * 
+	 * @param cycle Cycle number.
+	 * @return Time.
+	 */
+	/*package*/long getDueTime(final int cycle) {
+		return this.mDueTimes[cycle];
+	}
+	
+	/**
+	 * Get the time at which the next cycle is due.
+	 * 
+	 * @return Time.
+	 */
+	/*package*/long peekDueTime() {
+		return this.mDueTimes[this.mHeap[0]];
+	}
+	
+	/**
+	 * Remove and return the next cycle which is due.
+	 * 
+	 * @return Cycle number.
+	 */
+	/*package*/int poll() {
+		final int cycle = this.mHeap[0];
+		this.mSize -= 1;
+		if (this.mSize > 0) {
+			this.mHeap[0] = this.mHeap[this.mSize];
+			this.siftDown(0);
+		}
+		return cycle;
+	}
+	
+	/**
+	 * Test whether one cycle is due before another.
+	 * 
+	 * @param a Cycle number.
+	 * @param b Cycle number.
+	 * @return Boolean.
+	 */
+	private boolean isBefore(final int a, final int b) {
+		final long dueA = this.mDueTimes[a];
+		final long dueB = this.mDueTimes[b];
+		return (dueA < dueB) || ((dueA == dueB) && (a < b));
+	}
+	
+	/**
+	 * Move the cycle at a heap position up until its parent is due before it.
+	 * 
+	 * @param position Heap position.
+	 */
+	private void siftUp(int position) {
+		final int cycle = this.mHeap[position];
+		while (position > 0) {
+			final int parent = (position - 1) >> 1;
+			if (!this.isBefore(cycle, this.mHeap[parent])) {
+				break;
+			}
+			this.mHeap[position] = this.mHeap[parent];
+			position = parent;
+		}
+		this.mHeap[position] = cycle;
+	}
+	
+	/**
+	 * Move the cycle at a heap position down until it is due before its children.
+	 * 
+	 * @param position Heap position.
+	 */
+	private void siftDown(int position) {
+		final int cycle = this.mHeap[position];
+		while (true) {
+			int child = (position << 1) + 1;
+			if (child >= this.mSize) {
+				break;
+			}
+			if (((child + 1) < this.mSize) && this.isBefore(this.mHeap[child + 1], this.mHeap[child])) {
+				child += 1;
+			}
+			if (!this.isBefore(this.mHeap[child], cycle)) {
+				break;
+			}
+			this.mHeap[position] = this.mHeap[child];
+			position = child;
+		}
+		this.mHeap[position] = cycle;
+	}
+}
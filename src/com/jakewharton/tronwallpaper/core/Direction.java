@@ -0,0 +1,32 @@
+package com.jakewharton.tronwallpaper.core;
+
+/**
+ * Possible directions of travel.
+ * 
+ * @author Jake Wharton
+ */
+public enum Direction {
+	NORTH, SOUTH, EAST, WEST;
+	
+	
+	
+	/**
+	 * Get the direction that is the opposite of this one.
+	 * 
+	 * @return Opposite direction.
+	 */
+	public Direction getOpposite() {
+		switch (this) {
+			case NORTH:
+				return Direction.SOUTH;
+			case SOUTH:
+				return Direction.NORTH;
+			case EAST:
+				return Direction.WEST;
+			case WEST:
+				return Direction.EAST;
+			default:
+				throw new IllegalStateException("This is impossible.");
+		}
+	}
+}
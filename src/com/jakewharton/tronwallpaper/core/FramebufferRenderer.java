@@ -0,0 +1,124 @@
+package com.jakewharton.tronwallpaper.core;
+
+import java.util.Arrays;
+
+/**
+ * Software renderer which draws cells directly into an ARGB pixel array.
+ * 
+ * @author Jake Wharton
+ */
+public class FramebufferRenderer implements Renderer {
+	/**
+	 * Width (in pixels) of the framebuffer.
+	 */
+	private final int mWidth;
+	
+	/**
+	 * Height (in pixels) of the framebuffer.
+	 */
+	private final int mHeight;
+	
+	/**
+	 * Width and height (in pixels) of a single cell.
+	 */
+	private final int mCellSize;
+	
+	/**
+	 * ARGB pixels in row-major order.
+	 */
+	private final int[] mPixels;
+	
+	
+	
+	/**
+	 * Create a framebuffer sized to fit a board.
+	 * 
+	 * @param cellsWide Number of cells on the board horizontally.
+	 * @param cellsTall Number of cells on the board vertically.
+	 * @param cellSize Width and height (in pixels) of a single cell.
+	 */
+	public FramebufferRenderer(final int cellsWide, final int cellsTall, final int cellSize) {
+		if (cellSize < 1) {
+			throw new IllegalArgumentException("Cell size must be at least one pixel.");
+		}
+		
+		this.mCellSize = cellSize;
+		this.mWidth = cellsWide * cellSize;
+		this.mHeight = cellsTall * cellSize;
+		this.mPixels = new int[this.mWidth * this.mHeight];
+	}
+	
+	
+	
+	/**
+	 * Get the width (in pixels) of the framebuffer.
+	 * 
+	 * @return Width.
+	 */
+	public int getWidth() {
+		return this.mWidth;
+	}
+	
+	/**
+	 * Get the height (in pixels) of the framebuffer.
+	 * 
+	 * @return Height.
+	 */
+	public int getHeight() {
+		return this.mHeight;
+	}
+	
+	/**
+	 * Get the ARGB pixels in row-major order. The array is drawn into
+	 * directly and is not copied.
+	 * 
+	 * @return Pixels.
+	 */
+	public int[] getPixels() {
+		return this.mPixels;
+	}
+	
+	/**
+	 * Fill the entire framebuffer with a single color.
+	 * 
+	 * @param color ARGB color.
+	 */
+	public void clear(final int color) {
+		Arrays.fill(this.mPixels, color);
+	}
+	
+	public void drawCell(final int x, final int y, final int color) {
+		final int size = this.mCellSize;
+		int offset = (y * size * this.mWidth) + (x * size);
+		for (int row = 0; row < size; row++) {
+			Arrays.fill(this.mPixels, offset, offset + size, color);
+			offset += this.mWidth;
+		}
+	}
+	
+	public void fillCells(final int left, final int top, final int right, final int bottom, final int color) {
+		final int size = this.mCellSize;
+		final int width = (right - left) * size;
+		int offset = (top * size * this.mWidth) + (left * size);
+		for (int row = (bottom - top) * size; row > 0; row--) {
+			Arrays.fill(this.mPixels, offset, offset + width, color);
+			offset += this.mWidth;
+		}
+	}
+	
+	public void drawWall(final int left, final int top, final int right, final int bottom, final int color) {
+		final int x1 = left * this.mCellSize;
+		final int y1 = top * this.mCellSize;
+		final int x2 = Math.min(right * this.mCellSize, this.mWidth) - 1;
+		final int y2 = Math.min(bottom * this.mCellSize, this.mHeight) - 1;
+		
+		//Horizontal edges
+		Arrays.fill(this.mPixels, (y1 * this.mWidth) + x1, (y1 * this.mWidth) + x2 + 1, color);
+		Arrays.fill(this.mPixels, (y2 * this.mWidth) + x1, (y2 * this.mWidth) + x2 + 1, color);
+		//Vertical edges
+		for (int y = y1 + 1; y < y2; y++) {
+			this.mPixels[(y * this.mWidth) + x1] = color;
+			this.mPixels[(y * this.mWidth) + x2] = color;
+		}
+	}
+}
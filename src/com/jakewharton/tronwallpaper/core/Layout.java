@@ -0,0 +1,543 @@
+package com.jakewharton.tronwallpaper.core;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable description of the launcher layout that a board is built from.
+ * 
+ * @author Jake Wharton
+ */
+public final class Layout {
+	/**
+	 * Location of a widget on the launcher, in icon coordinates (inclusive).
+	 * 
+	 * @author Jake Wharton
+	 */
+	public static final class Widget {
+		/**
+		 * Left-most icon column.
+		 */
+		public final int left;
+		
+		/**
+		 * Top-most icon row.
+		 */
+		public final int top;
+		
+		/**
+		 * Right-most icon column.
+		 */
+		public final int right;
+		
+		/**
+		 * Bottom-most icon row.
+		 */
+		public final int bottom;
+		
+		
+		
+		/**
+		 * Create a new widget location.
+		 * 
+		 * @param left Left-most icon column.
+		 * @param top Top-most icon row.
+		 * @param right Right-most icon column.
+		 * @param bottom Bottom-most icon row.
+		 */
+		public Widget(final int left, final int top, final int right, final int bottom) {
+			this.left = left;
+			this.top = top;
+			this.right = right;
+			this.bottom = bottom;
+		}
+		
+		
+		
+		/**
+		 * Test whether an icon position is covered by this widget.
+		 * 
+		 * @param x Icon column.
+		 * @param y Icon row.
+		 * @return Boolean.
+		 */
+		public boolean contains(final int x, final int y) {
+			return (x >= this.left) && (x <= this.right) && (y >= this.top) && (y <= this.bottom);
+		}
+		
+		@Override
+		public boolean equals(final Object other) {
+			if (!(other instanceof Layout.Widget)) {
+				return false;
+			}
+			final Layout.Widget widget = (Layout.Widget)other;
+			return (this.left == widget.left) && (this.top == widget.top) && (this.right == widget.right) && (this.bottom == widget.bottom);
+		}
+		
+		@Override
+		public int hashCode() {
+			return (((((this.left * 31) + this.top) * 31) + this.right) * 31) + this.bottom;
+		}
+		
+		@Override
+		public String toString() {
+			return "Widget(L=" + this.left + ", T=" + this.top + ", R=" + this.right + ", B=" + this.bottom + ")";
+		}
+	}
+	
+	
+	
+	/**
+	 * Block cells between icon rows at normal resolution.
+	 */
+	public static final int CELLS_BETWEEN_ROW = 4;
+	
+	/**
+	 * Block cells between icon columns at normal resolution.
+	 */
+	public static final int CELLS_BETWEEN_COLUMN = 4;
+	
+	/**
+	 * Largest number of cells each normal cell can be subdivided into on each side.
+	 */
+	public static final int MAX_RESOLUTION = 8;
+	
+	/**
+	 * Number of numbers stored for a wall rectangle (L, T, R, B).
+	 */
+	private static final int RECTANGLE_LENGTH = 4;
+	
+	
+	
+	/**
+	 * Number of icon rows on the launcher.
+	 */
+	private final int mIconRows;
+	
+	/**
+	 * Number of icon columns on the launcher.
+	 */
+	private final int mIconCols;
+	
+	/**
+	 * Number of cells vertically between the rows.
+	 */
+	private final int mCellRowSpacing;
+	
+	/**
+	 * Number of cells horizontally between the columns.
+	 */
+	private final int mCellColumnSpacing;
+	
+	/**
+	 * Number of cells each normal cell is subdivided into on each side.
+	 */
+	private final int mResolution;
+	
+	/**
+	 * Whether the board ends with a gap after the last icon column.
+	 */
+	private final boolean mHasTrailingColumnGap;
+	
+	/**
+	 * Whether the board ends with a gap after the last icon row.
+	 */
+	private final boolean mHasTrailingRowGap;
+	
+	/**
+	 * The locations of widgets on the launcher.
+	 */
+	private final List<Layout.Widget> mWidgets;
+	
+	/**
+	 * Precalculated wall rectangles for drawing, in cells, packed as L, T, R, B.
+	 */
+	private final int[] mWalls;
+	
+	
+	
+	/**
+	 * Create a new layout at normal resolution.
+	 * 
+	 * @param iconRows Number of icon rows on the launcher.
+	 * @param iconCols Number of icon columns on the launcher.
+	 * @param cellRowSpacing Number of cells vertically in an icon row.
+	 * @param cellColumnSpacing Number of cells horizontally in an icon column.
+	 * @param widgets Locations of widgets on the launcher.
+	 */
+	public Layout(final int iconRows, final int iconCols, final int cellRowSpacing, final int cellColumnSpacing, final List<Layout.Widget> widgets) {
+		this(iconRows, iconCols, cellRowSpacing, cellColumnSpacing, 1, widgets);
+	}
+	
+	/**
+	 * Create a new layout.
+	 * 
+	 * @param iconRows Number of icon rows on the launcher.
+	 * @param iconCols Number of icon columns on the launcher.
+	 * @param cellRowSpacing Number of cells vertically in an icon row at normal resolution.
+	 * @param cellColumnSpacing Number of cells horizontally in an icon column at normal resolution.
+	 * @param resolution Number of cells each normal cell is subdivided into on each side, up to {@link #MAX_RESOLUTION}.
+	 * @param widgets Locations of widgets on the launcher.
+	 */
+	public Layout(final int iconRows, final int iconCols, final int cellRowSpacing, final int cellColumnSpacing, final int resolution, final List<Layout.Widget> widgets) {
+		this(iconRows, iconCols, cellRowSpacing, cellColumnSpacing, resolution, true, true, widgets);
+	}
+	
+	/**
+	 * Create a new layout which may leave out the gaps after its last icon
+	 * column or row. A tile cut out of a larger layout only ends with a gap
+	 * where the larger layout does, so neighbouring tiles never share cells.
+	 * 
+	 * @param iconRows Number of icon rows on the launcher.
+	 * @param iconCols Number of icon columns on the launcher.
+	 * @param cellRowSpacing Number of cells vertically in an icon row at normal resolution.
+	 * @param cellColumnSpacing Number of cells horizontally in an icon column at normal resolution.
+	 * @param resolution Number of cells each normal cell is subdivided into on each side, up to {@link #MAX_RESOLUTION}.
+	 * @param hasTrailingColumnGap Whether the board ends with a gap after the last icon column.
+	 * @param hasTrailingRowGap Whether the board ends with a gap after the last icon row.
+	 * @param widgets Locations of widgets on the launcher.
+	 */
+	public Layout(final int iconRows, final int iconCols, final int cellRowSpacing, final int cellColumnSpacing, final int resolution, final boolean hasTrailingColumnGap, final boolean hasTrailingRowGap, final List<Layout.Widget> widgets) {
+		if ((resolution < 1) || (resolution > Layout.MAX_RESOLUTION)) {
+			throw new IllegalArgumentException("Resolution must be between 1 and " + Layout.MAX_RESOLUTION + ".");
+		}
+		
+		this.mIconRows = iconRows;
+		this.mIconCols = iconCols;
+		this.mCellRowSpacing = cellRowSpacing;
+		this.mCellColumnSpacing = cellColumnSpacing;
+		this.mResolution = resolution;
+		this.mHasTrailingColumnGap = hasTrailingColumnGap;
+		this.mHasTrailingRowGap = hasTrailingRowGap;
+		this.mWidgets = Collections.unmodifiableList(new ArrayList<Layout.Widget>(widgets));
+		this.mWalls = this.calculateWalls();
+	}
+	
+	
+	
+	/**
+	 * Calculate the outlines of every widget and uncovered icon.
+	 * 
+	 * @return Packed wall rectangles.
+	 */
+	private int[] calculateWalls() {
+		final int iconCellsWidth = this.getIconCellsWidth();
+		final int iconCellsHeight = this.getIconCellsHeight();
+		final int cellsBetweenColumn = this.getCellsBetweenColumn();
+		final int cellsBetweenRow = this.getCellsBetweenRow();
+		final List<int[]> walls = new ArrayList<int[]>();
+		
+		//Widget walls
+		for (final Layout.Widget widget : this.mWidgets) {
+			final int left = (widget.left * iconCellsWidth) + cellsBetweenColumn;
+			final int top = (widget.top * iconCellsHeight) + cellsBetweenRow;
+			final int right = (widget.right * iconCellsWidth) + iconCellsWidth;
+			final int bottom = (widget.bottom * iconCellsHeight) + iconCellsHeight;
+			walls.add(new int[] { left, top, right, bottom });
+		}
+		
+		//Icon walls
+		for (int y = 0; y < this.mIconRows; y++) {
+			for (int x = 0; x < this.mIconCols; x++) {
+				if (this.isWidget(x, y)) {
+					continue;
+				}
+				
+				final int left = (x * iconCellsWidth) + cellsBetweenColumn;
+				final int top = (y * iconCellsHeight) + cellsBetweenRow;
+				walls.add(new int[] { left, top, left + (this.mCellColumnSpacing * this.mResolution), top + (this.mCellRowSpacing * this.mResolution) });
+			}
+		}
+		
+		final int[] packed = new int[walls.size() * Layout.RECTANGLE_LENGTH];
+		for (int i = 0; i < walls.size(); i++) {
+			System.arraycopy(walls.get(i), 0, packed, i * Layout.RECTANGLE_LENGTH, Layout.RECTANGLE_LENGTH);
+		}
+		return packed;
+	}
+	
+	
+	
+	/**
+	 * Get the number of icon rows on the launcher.
+	 * 
+	 * @return Row count.
+	 */
+	public int getIconRows() {
+		return this.mIconRows;
+	}
+	
+	/**
+	 * Get the number of icon columns on the launcher.
+	 * 
+	 * @return Column count.
+	 */
+	public int getIconCols() {
+		return this.mIconCols;
+	}
+	
+	/**
+	 * Get the number of cells vertically in an icon row at normal resolution.
+	 * 
+	 * @return Cell count.
+	 */
+	public int getCellRowSpacing() {
+		return this.mCellRowSpacing;
+	}
+	
+	/**
+	 * Get the number of cells horizontally in an icon column at normal resolution.
+	 * 
+	 * @return Cell count.
+	 */
+	public int getCellColumnSpacing() {
+		return this.mCellColumnSpacing;
+	}
+	
+	/**
+	 * Get the number of cells each normal cell is subdivided into on each side.
+	 * 
+	 * @return Resolution multiplier.
+	 */
+	public int getResolution() {
+		return this.mResolution;
+	}
+	
+	/**
+	 * Get whether the board ends with a gap after the last icon column.
+	 * 
+	 * @return Boolean.
+	 */
+	public boolean hasTrailingColumnGap() {
+		return this.mHasTrailingColumnGap;
+	}
+	
+	/**
+	 * Get whether the board ends with a gap after the last icon row.
+	 * 
+	 * @return Boolean.
+	 */
+	public boolean hasTrailingRowGap() {
+		return this.mHasTrailingRowGap;
+	}
+	
+	/**
+	 * Get the number of block cells between icon rows.
+	 * 
+	 * @return Cell count.
+	 */
+	public int getCellsBetweenRow() {
+		return Layout.CELLS_BETWEEN_ROW * this.mResolution;
+	}
+	
+	/**
+	 * Get the number of block cells between icon columns.
+	 * 
+	 * @return Cell count.
+	 */
+	public int getCellsBetweenColumn() {
+		return Layout.CELLS_BETWEEN_COLUMN * this.mResolution;
+	}
+	
+	/**
+	 * Get the locations of widgets on the launcher.
+	 * 
+	 * @return Unmodifiable list of widgets.
+	 */
+	public List<Layout.Widget> getWidgets() {
+		return this.mWidgets;
+	}
+	
+	/**
+	 * Get the number of cells in a single icon and its leading gap horizontally.
+	 * 
+	 * @return Cell count.
+	 */
+	public int getIconCellsWidth() {
+		return (this.mCellColumnSpacing + Layout.CELLS_BETWEEN_COLUMN) * this.mResolution;
+	}
+	
+	/**
+	 * Get the number of cells in a single icon and its leading gap vertically.
+	 * 
+	 * @return Cell count.
+	 */
+	public int getIconCellsHeight() {
+		return (this.mCellRowSpacing + Layout.CELLS_BETWEEN_ROW) * this.mResolution;
+	}
+	
+	/**
+	 * Get the number of cells on the board horizontally.
+	 * 
+	 * @return Cell count.
+	 */
+	public int getCellsWide() {
+		return (this.mIconCols * this.getIconCellsWidth()) + (this.mHasTrailingColumnGap ? this.getCellsBetweenColumn() : 0);
+	}
+	
+	/**
+	 * Get the number of cells on the board vertically.
+	 * 
+	 * @return Cell count.
+	 */
+	public int getCellsTall() {
+		return (this.mIconRows * this.getIconCellsHeight()) + (this.mHasTrailingRowGap ? this.getCellsBetweenRow() : 0);
+	}
+	
+	/**
+	 * Get the number of wall rectangles around widgets and icons.
+	 * 
+	 * @return Wall count.
+	 */
+	public int getWallCount() {
+		return this.mWalls.length / Layout.RECTANGLE_LENGTH;
+	}
+	
+	/**
+	 * Get the left edge of a wall rectangle.
+	 * 
+	 * @param wall Wall index.
+	 * @return Left edge, in cells.
+	 */
+	public int getWallLeft(final int wall) {
+		return this.mWalls[wall * Layout.RECTANGLE_LENGTH];
+	}
+	
+	/**
+	 * Get the top edge of a wall rectangle.
+	 * 
+	 * @param wall Wall index.
+	 * @return Top edge, in cells.
+	 */
+	public int getWallTop(final int wall) {
+		return this.mWalls[(wall * Layout.RECTANGLE_LENGTH) + 1];
+	}
+	
+	/**
+	 * Get the right edge (exclusive) of a wall rectangle.
+	 * 
+	 * @param wall Wall index.
+	 * @return Right edge, in cells.
+	 */
+	public int getWallRight(final int wall) {
+		return this.mWalls[(wall * Layout.RECTANGLE_LENGTH) + 2];
+	}
+	
+	/**
+	 * Get the bottom edge (exclusive) of a wall rectangle.
+	 * 
+	 * @param wall Wall index.
+	 * @return Bottom edge, in cells.
+	 */
+	public int getWallBottom(final int wall) {
+		return this.mWalls[(wall * Layout.RECTANGLE_LENGTH) + 3];
+	}
+	
+	/**
+	 * Write everything that identifies this layout.
+	 * 
+	 * @param out Output.
+	 * @throws IOException if the output could not be written.
+	 */
+	public void write(final DataOutput out) throws IOException {
+		out.writeInt(this.mIconRows);
+		out.writeInt(this.mIconCols);
+		out.writeInt(this.mCellRowSpacing);
+		out.writeInt(this.mCellColumnSpacing);
+		out.writeInt(this.mResolution);
+		out.writeBoolean(this.mHasTrailingColumnGap);
+		out.writeBoolean(this.mHasTrailingRowGap);
+		out.writeInt(this.mWidgets.size());
+		for (final Layout.Widget widget : this.mWidgets) {
+			out.writeInt(widget.left);
+			out.writeInt(widget.top);
+			out.writeInt(widget.right);
+			out.writeInt(widget.bottom);
+		}
+	}
+	
+	/**
+	 * Read a layout written by {@link #write(DataOutput)}.
+	 * 
+	 * @param in Input.
+	 * @return Layout.
+	 * @throws IOException if the input could not be read or is not a layout.
+	 */
+	public static Layout read(final DataInput in) throws IOException {
+		final int iconRows = in.readInt();
+		final int iconCols = in.readInt();
+		final int cellRowSpacing = in.readInt();
+		final int cellColumnSpacing = in.readInt();
+		final int resolution = in.readInt();
+		final boolean hasTrailingColumnGap = in.readBoolean();
+		final boolean hasTrailingRowGap = in.readBoolean();
+		final int widgetCount = in.readInt();
+		if ((widgetCount < 0) || (widgetCount > (iconRows * iconCols))) {
+			throw new IOException("Layout widget count is invalid.");
+		}
+		final List<Layout.Widget> widgets = new ArrayList<Layout.Widget>(widgetCount);
+		for (int i = 0; i < widgetCount; i++) {
+			widgets.add(new Layout.Widget(in.readInt(), in.readInt(), in.readInt(), in.readInt()));
+		}
+		
+		try {
+			return new Layout(iconRows, iconCols, cellRowSpacing, cellColumnSpacing, resolution, hasTrailingColumnGap, hasTrailingRowGap, widgets);
+		} catch (final IllegalArgumentException e) {
+			throw new IOException("Layout is invalid.");
+		}
+	}
+	
+	/**
+	 * Test whether an icon position is covered by a widget.
+	 * 
+	 * @param x Icon column.
+	 * @param y Icon row.
+	 * @return Boolean.
+	 */
+	public boolean isWidget(final int x, final int y) {
+		for (final Layout.Widget widget : this.mWidgets) {
+			if (widget.contains(x, y)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	@Override
+	public boolean equals(final Object other) {
+		if (!(other instanceof Layout)) {
+			return false;
+		}
+		final Layout layout = (Layout)other;
+		return (this.mIconRows == layout.mIconRows)
+				&& (this.mIconCols == layout.mIconCols)
+				&& (this.mCellRowSpacing == layout.mCellRowSpacing)
+				&& (this.mCellColumnSpacing == layout.mCellColumnSpacing)
+				&& (this.mResolution == layout.mResolution)
+				&& (this.mHasTrailingColumnGap == layout.mHasTrailingColumnGap)
+				&& (this.mHasTrailingRowGap == layout.mHasTrailingRowGap)
+				&& this.mWidgets.equals(layout.mWidgets);
+	}
+	
+	@Override
+	public int hashCode() {
+		int hash = this.mIconRows;
+		hash = (hash * 31) + this.mIconCols;
+		hash = (hash * 31) + this.mCellRowSpacing;
+		hash = (hash * 31) + this.mCellColumnSpacing;
+		hash = (hash * 31) + this.mResolution;
+		hash = (hash * 31) + (this.mHasTrailingColumnGap ? 1 : 0);
+		hash = (hash * 31) + (this.mHasTrailingRowGap ? 1 : 0);
+		hash = (hash * 31) + this.mWidgets.hashCode();
+		return hash;
+	}
+	
+	@Override
+	public String toString() {
+		return "Layout(rows=" + this.mIconRows + ", cols=" + this.mIconCols + ", rowSpacing=" + this.mCellRowSpacing + ", colSpacing=" + this.mCellColumnSpacing + ", resolution=" + this.mResolution + ", trailingColumnGap=" + this.mHasTrailingColumnGap + ", trailingRowGap=" + this.mHasTrailingRowGap + ", widgets=" + this.mWidgets + ")";
+	}
+}
@@ -0,0 +1,459 @@
+package com.jakewharton.tronwallpaper.core;
+
+/**
+ * Plays out random games from the current position against the nearest
+ * rival and grows a tree of the moves which do best, using Monte Carlo
+ * tree search.
+ * 
+ * Each iteration picks a line through the tree by upper confidence bound,
+ * adds the moves after it, then finishes the game with random moves for
+ * both cycles. The result is counted along the line. Iterations run until
+ * this decision's share of the tick's budget is spent, so a slower device
+ * plays fewer of them rather than missing a frame. The most visited move is
+ * played. Every other cycle is treated as a wall where it stands.
+ * 
+ * Tree nodes come from a fixed pool and every playout runs on a scratch
+ * board which is copied back from the position in bulk, so nothing is
+ * allocated while thinking.
+ * 
+ * @author Jake Wharton
+ */
+/*package*/final class MctsStrategy implements Strategy {
+	/**
+	 * Number of nodes in the pool. Once it is used up the tree stops
+	 * growing but iterations carry on from its leaves.
+	 */
+	private static final int MAX_NODES = 1 << 15;
+	
+	/**
+	 * Most moves from the root to a leaf of the tree.
+	 */
+	private static final int MAX_TREE_DEPTH = 256;
+	
+	/**
+	 * Most moves of a random playout, which is a draw if both cycles are still riding at its end.
+	 */
+	private static final int MAX_PLAYOUT_MOVES = 2048;
+	
+	/**
+	 * If a random number [0, TURN_CHANCE) is 0 then a playout turns even though it could go straight.
+	 */
+	private static final int TURN_CHANCE = 8;
+	
+	/**
+	 * Weight of exploring moves which have been tried less often.
+	 */
+	private static final double EXPLORATION = Math.sqrt(2);
+	
+	/**
+	 * Half points for the cycle being decided for when it crashes first.
+	 */
+	private static final int LOSS = 0;
+	
+	/**
+	 * Half points for the cycle being decided for when both crash head on or ride out the playout.
+	 */
+	private static final int DRAW = 1;
+	
+	/**
+	 * Half points for the cycle being decided for when its rival crashes first.
+	 */
+	private static final int WIN = 2;
+	
+	/**
+	 * Node whose moves have not been added yet.
+	 */
+	private static final byte NODE_OPEN = 0;
+	
+	/**
+	 * Node whose moves have been added. Without any, the cycle to move has lost.
+	 */
+	private static final byte NODE_EXPANDED = 1;
+	
+	/**
+	 * Node where both cycles crashed head on.
+	 */
+	private static final byte NODE_DRAW = 2;
+	
+	/**
+	 * Number of directions a cycle can move in.
+	 */
+	private static final int DIRECTION_COUNT = Direction.values().length;
+	
+	
+	
+	/**
+	 * Simulation whose cycles are being decided for.
+	 */
+	private final Simulation mSimulation;
+	
+	/**
+	 * Random number generator for playouts, independent of the simulation's.
+	 */
+	private final Rng mRandom;
+	
+	/**
+	 * Board index offset of a single step in each direction indexed by ordinal.
+	 */
+	private final int[] mDeltas;
+	
+	/**
+	 * Board at the position being decided.
+	 */
+	private final byte[] mRootBoard;
+	
+	/**
+	 * Copy of {@link #mRootBoard} which each iteration makes its moves on.
+	 */
+	private final byte[] mBoard;
+	
+	/**
+	 * State of each node.
+	 */
+	private final byte[] mStates;
+	
+	/**
+	 * Direction ordinal of the move leading to each node.
+	 */
+	private final byte[] mMoves;
+	
+	/**
+	 * Number of children of each node.
+	 */
+	private final byte[] mChildCounts;
+	
+	/**
+	 * Index of the first child of each node. Children are adjacent in the pool.
+	 */
+	private final int[] mFirstChildren;
+	
+	/**
+	 * Number of iterations which passed through each node.
+	 */
+	private final int[] mVisits;
+	
+	/**
+	 * Half points won through each node by the cycle whose move led to it.
+	 */
+	private final int[] mScores;
+	
+	/**
+	 * Number of nodes taken from the pool.
+	 */
+	private int mNodeCount;
+	
+	/**
+	 * Nodes along the line of the current iteration, starting at the root.
+	 */
+	private final int[] mPath;
+	
+	/**
+	 * Number of playouts run.
+	 */
+	private long mPlayouts;
+	
+	/**
+	 * Time spent running iterations, in nanoseconds.
+	 */
+	private long mThinkingTime;
+	
+	
+	
+	/**
+	 * Create a strategy with a node pool and scratch space for a simulation's board.
+	 * 
+	 * @param simulation Simulation.
+	 */
+	/*package*/MctsStrategy(final Simulation simulation) {
+		this.mSimulation = simulation;
+		this.mRandom = new Rng(simulation.getSeed());
+		this.mRootBoard = new byte[simulation.getBoard().length];
+		this.mBoard = new byte[this.mRootBoard.length];
+		this.mStates = new byte[MctsStrategy.MAX_NODES];
+		this.mMoves = new byte[MctsStrategy.MAX_NODES];
+		this.mChildCounts = new byte[MctsStrategy.MAX_NODES];
+		this.mFirstChildren = new int[MctsStrategy.MAX_NODES];
+		this.mVisits = new int[MctsStrategy.MAX_NODES];
+		this.mScores = new int[MctsStrategy.MAX_NODES];
+		this.mPath = new int[MctsStrategy.MAX_TREE_DEPTH + 1];
+		this.mDeltas = new int[MctsStrategy.DIRECTION_COUNT];
+		for (int direction = 0; direction < this.mDeltas.length; direction++) {
+			this.mDeltas[direction] = simulation.getDirectionDelta(direction);
+		}
+	}
+	
+	
+	
+	/**
+	 * Get the number of playouts run.
+	 * 
+	 * @return Playout count.
+	 */
+	/*package*/long getPlayouts() {
+		return this.mPlayouts;
+	}
+	
+	/**
+	 * Get the time spent running playouts and growing the tree.
+	 * 
+	 * @return Nanoseconds.
+	 */
+	/*package*/long getThinkingTime() {
+		return this.mThinkingTime;
+	}
+	
+	public int chooseDirection(final int cycle) {
+		final Simulation simulation = this.mSimulation;
+		final byte[] live = simulation.getBoard();
+		final int head = simulation.getHead(cycle);
+		
+		//Played if there is no time for a single iteration
+		final int fallback = simulation.chooseFallbackDirection(cycle);
+		
+		final int rival = simulation.findRival(cycle);
+		final long deadline = simulation.getDeadline();
+		final long start = System.nanoTime();
+		if ((rival < 0) || (Integer.bitCount(this.getLegalMoves(live, head)) <= 1) || (start >= deadline)) {
+			return fallback;
+		}
+		
+		System.arraycopy(live, 0, this.mRootBoard, 0, live.length);
+		final int rivalHead = simulation.getHead(rival);
+		
+		this.mNodeCount = 0;
+		final int root = this.newNode(-1);
+		long now = start;
+		while (now < deadline) {
+			this.iterate(root, head, rivalHead);
+			now = System.nanoTime();
+		}
+		this.mThinkingTime += now - start;
+		
+		if (this.mStates[root] != MctsStrategy.NODE_EXPANDED) {
+			return fallback;
+		}
+		int best = fallback;
+		int bestVisits = 0;
+		final int first = this.mFirstChildren[root];
+		for (int child = first; child < first + this.mChildCounts[root]; child++) {
+			if (this.mVisits[child] > bestVisits) {
+				best = this.mMoves[child];
+				bestVisits = this.mVisits[child];
+			}
+		}
+		return best;
+	}
+	
+	/**
+	 * Run a single iteration: follow the tree to a leaf, grow it, play the
+	 * rest of the game out at random and count the result along the way.
+	 * 
+	 * @param root Root node.
+	 * @param self Head of the cycle being decided for.
+	 * @param rival Head of the rival.
+	 */
+	private void iterate(final int root, int self, int rival) {
+		final byte[] board = this.mBoard;
+		System.arraycopy(this.mRootBoard, 0, board, 0, board.length);
+		
+		int node = root;
+		int depth = 0;
+		this.mPath[0] = root;
+		int result;
+		while (true) {
+			final boolean isSelfToMove = ((depth & 1) == 0);
+			if (this.mStates[node] == MctsStrategy.NODE_DRAW) {
+				result = MctsStrategy.DRAW;
+				break;
+			}
+			if (this.mStates[node] == MctsStrategy.NODE_OPEN) {
+				//A node is only grown once it has had a playout of its own
+				final boolean isFirstVisit = (node != root) && (this.mVisits[node] == 0);
+				if (isFirstVisit || (depth == MctsStrategy.MAX_TREE_DEPTH) || !this.expand(node, isSelfToMove ? self : rival, isSelfToMove ? -1 : self)) {
+					result = this.playout(self, rival, isSelfToMove);
+					break;
+				}
+			}
+			if (this.mChildCounts[node] == 0) {
+				result = isSelfToMove ? MctsStrategy.LOSS : MctsStrategy.WIN;
+				break;
+			}
+			
+			node = this.select(node);
+			final int direction = this.mMoves[node];
+			if (isSelfToMove) {
+				self += this.mDeltas[direction];
+				board[self] = Simulation.CELL_WALL;
+			} else if (this.mStates[node] != MctsStrategy.NODE_DRAW) {
+				rival += this.mDeltas[direction];
+				board[rival] = Simulation.CELL_WALL;
+			}
+			depth += 1;
+			this.mPath[depth] = node;
+		}
+		
+		this.mPlayouts += 1;
+		for (int i = 0; i <= depth; i++) {
+			final int pathNode = this.mPath[i];
+			this.mVisits[pathNode] += 1;
+			//Odd depths were reached by a move of the cycle being decided for
+			this.mScores[pathNode] += ((i & 1) == 1) ? result : (MctsStrategy.WIN - result);
+		}
+	}
+	
+	/**
+	 * Add the moves of the cycle to move at a node as its children.
+	 * 
+	 * @param node Node.
+	 * @param head Head of the cycle to move.
+	 * @param opposing Head which moving onto is a draw, or -1.
+	 * @return Whether or not there was room in the pool.
+	 */
+	private boolean expand(final int node, final int head, final int opposing) {
+		if (this.mNodeCount + MctsStrategy.DIRECTION_COUNT > MctsStrategy.MAX_NODES) {
+			return false;
+		}
+		
+		this.mFirstChildren[node] = this.mNodeCount;
+		int children = 0;
+		for (int direction = 0; direction < MctsStrategy.DIRECTION_COUNT; direction++) {
+			final int next = head + this.mDeltas[direction];
+			if (next == opposing) {
+				final int child = this.newNode(direction);
+				this.mStates[child] = MctsStrategy.NODE_DRAW;
+				children += 1;
+			} else if (this.mBoard[next] == Simulation.CELL_BLANK) {
+				this.newNode(direction);
+				children += 1;
+			}
+		}
+		this.mChildCounts[node] = (byte)children;
+		this.mStates[node] = MctsStrategy.NODE_EXPANDED;
+		return true;
+	}
+	
+	/**
+	 * Choose the child of a node with the highest upper confidence bound.
+	 * Children which have never been visited come first.
+	 * 
+	 * @param node Expanded node with at least one child.
+	 * @return Child node.
+	 */
+	private int select(final int node) {
+		final int first = this.mFirstChildren[node];
+		final int last = first + this.mChildCounts[node];
+		final double logVisits = Math.log(Math.max(this.mVisits[node], 1));
+		
+		int best = first;
+		double bestBound = -1;
+		for (int child = first; child < last; child++) {
+			final int visits = this.mVisits[child];
+			if (visits == 0) {
+				return child;
+			}
+			final double mean = this.mScores[child] / (double)(visits * MctsStrategy.WIN);
+			final double bound = mean + (MctsStrategy.EXPLORATION * Math.sqrt(logVisits / visits));
+			if (bound > bestBound) {
+				best = child;
+				bestBound = bound;
+			}
+		}
+		return best;
+	}
+	
+	/**
+	 * Finish the game on the scratch board with random moves, taking turns.
+	 * 
+	 * @param self Head of the cycle being decided for.
+	 * @param rival Head of the rival.
+	 * @param isSelfToMove Whether or not the cycle being decided for moves first.
+	 * @return Result for the cycle being decided for.
+	 */
+	private int playout(int self, int rival, boolean isSelfToMove) {
+		final byte[] board = this.mBoard;
+		int selfDirection = -1;
+		int rivalDirection = -1;
+		for (int move = 0; move < MctsStrategy.MAX_PLAYOUT_MOVES; move++) {
+			if (isSelfToMove) {
+				final int moves = this.getLegalMoves(board, self);
+				if (moves == 0) {
+					return MctsStrategy.LOSS;
+				}
+				selfDirection = this.pickMove(moves, selfDirection);
+				self += this.mDeltas[selfDirection];
+				board[self] = Simulation.CELL_WALL;
+			} else {
+				int moves = this.getLegalMoves(board, rival);
+				for (int direction = 0; direction < MctsStrategy.DIRECTION_COUNT; direction++) {
+					if (rival + this.mDeltas[direction] == self) {
+						moves |= (1 << direction);
+					}
+				}
+				if (moves == 0) {
+					return MctsStrategy.WIN;
+				}
+				rivalDirection = this.pickMove(moves, rivalDirection);
+				rival += this.mDeltas[rivalDirection];
+				if (rival == self) {
+					//Head on, neither survives
+					return MctsStrategy.DRAW;
+				}
+				board[rival] = Simulation.CELL_WALL;
+			}
+			isSelfToMove = !isSelfToMove;
+		}
+		return MctsStrategy.DRAW;
+	}
+	
+	/**
+	 * Get the moves from a cell which do not crash.
+	 * 
+	 * @param board Board cells.
+	 * @param cell Board index.
+	 * @return Mask of direction ordinals.
+	 */
+	private int getLegalMoves(final byte[] board, final int cell) {
+		int mask = 0;
+		for (int direction = 0; direction < MctsStrategy.DIRECTION_COUNT; direction++) {
+			if (board[cell + this.mDeltas[direction]] == Simulation.CELL_BLANK) {
+				mask |= (1 << direction);
+			}
+		}
+		return mask;
+	}
+	
+	/**
+	 * Pick a move from a mask, mostly going straight like a wandering cycle does.
+	 * 
+	 * @param mask Mask of direction ordinals, not empty.
+	 * @param previous Direction ordinal of the previous move, or -1.
+	 * @return Direction ordinal.
+	 */
+	private int pickMove(int mask, final int previous) {
+		if ((previous >= 0) && ((mask & (1 << previous)) != 0) && (this.mRandom.nextInt(MctsStrategy.TURN_CHANCE) != 0)) {
+			return previous;
+		}
+		
+		//Skip over a random number of set bits
+		for (int skip = this.mRandom.nextInt(Integer.bitCount(mask)); skip > 0; skip--) {
+			mask &= (mask - 1);
+		}
+		return Integer.numberOfTrailingZeros(mask);
+	}
+	
+	/**
+	 * Take a node from the pool.
+	 * 
+	 * @param direction Direction ordinal of the move leading to it, or -1 for the root.
+	 * @return Node.
+	 */
+	private int newNode(final int direction) {
+		final int node = this.mNodeCount++;
+		this.mStates[node] = MctsStrategy.NODE_OPEN;
+		this.mMoves[node] = (byte)direction;
+		this.mChildCounts[node] = 0;
+		this.mVisits[node] = 0;
+		this.mScores[node] = 0;
+		return node;
+	}
+}
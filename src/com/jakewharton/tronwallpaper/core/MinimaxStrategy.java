@@ -0,0 +1,387 @@
+package com.jakewharton.tronwallpaper.core;
+
+/**
+ * Searches the moves of a cycle and its nearest rival with alpha-beta
+ * minimax, scoring the positions it reaches by territory.
+ * 
+ * The search deepens one move at a time until this decision's share of
+ * the tick's budget is spent, and the move from the deepest search which
+ * finished is played. Moves are tried best first: at the root in the order of the
+ * previous search's scores and below it starting with the move which last
+ * caused a cutoff at the same depth. Every other cycle is treated as a
+ * wall where it stands.
+ * 
+ * Moves are made and taken back on the simulation's own board, as
+ * territory stamps its visits, so nothing is copied or allocated while
+ * searching. Every move is taken back before the search returns, even
+ * when it runs out of time, so the board is as it was between decisions.
+ * 
+ * @author Jake Wharton
+ */
+/*package*/final class MinimaxStrategy implements Strategy {
+	/**
+	 * Most moves of each cycle searched ahead.
+	 */
+	private static final int MAX_DEPTH = 32;
+	
+	/**
+	 * Score of a won position. Wins sooner score higher.
+	 */
+	private static final int WIN = 1 << 24;
+	
+	/**
+	 * Score beyond any position.
+	 */
+	private static final int INFINITY = MinimaxStrategy.WIN * 2;
+	
+	/**
+	 * Number of directions a cycle can move in.
+	 */
+	private static final int DIRECTION_COUNT = Direction.values().length;
+	
+	/**
+	 * Weight of the newest evaluation in the running estimate of their cost, as a shift.
+	 */
+	private static final int COST_SHIFT = 3;
+	
+	
+	
+	/**
+	 * Simulation whose cycles are being decided for.
+	 */
+	private final Simulation mSimulation;
+	
+	/**
+	 * Evaluator of the positions at the end of the search.
+	 */
+	private final TerritoryStrategy mTerritory;
+	
+	/**
+	 * Board index offset of a single step in each direction indexed by ordinal.
+	 */
+	private final int[] mDeltas;
+	
+	/**
+	 * Head of the rival, as moved at the position being evaluated, followed
+	 * by the heads of the other cycles still riding.
+	 */
+	private final int[] mOthers;
+	
+	/**
+	 * Number of heads in {@link #mOthers}.
+	 */
+	private int mOtherCount;
+	
+	/**
+	 * Direction ordinal which last caused a cutoff at each depth.
+	 */
+	private final int[] mKillers;
+	
+	/**
+	 * Score of each root move in the previous search, indexed by ordinal.
+	 */
+	private final int[] mRootScores;
+	
+	/**
+	 * Direction ordinals of the root moves in the order they are searched.
+	 */
+	private final int[] mRootOrder;
+	
+	/**
+	 * Time at which the search must stop, as given by {@link System#nanoTime()}.
+	 */
+	private long mDeadline;
+	
+	/**
+	 * Whether or not the current search ran out of time.
+	 */
+	private boolean mIsAborted;
+	
+	/**
+	 * Whether or not the current search stopped any line early because of its depth.
+	 */
+	private boolean mIsDepthLimited;
+	
+	/**
+	 * Running estimate of the time a single evaluation takes, in nanoseconds.
+	 */
+	private long mEvaluationCost;
+	
+	
+	
+	/**
+	 * Create a strategy for a simulation.
+	 * 
+	 * @param simulation Simulation.
+	 * @param territory Territory evaluator for the same simulation.
+	 */
+	/*package*/MinimaxStrategy(final Simulation simulation, final TerritoryStrategy territory) {
+		this.mSimulation = simulation;
+		this.mTerritory = territory;
+		this.mOthers = new int[Simulation.MAX_CYCLES];
+		this.mKillers = new int[(MinimaxStrategy.MAX_DEPTH * 2) + 1];
+		this.mRootScores = new int[MinimaxStrategy.DIRECTION_COUNT];
+		this.mRootOrder = new int[MinimaxStrategy.DIRECTION_COUNT];
+		this.mDeltas = new int[MinimaxStrategy.DIRECTION_COUNT];
+		for (int direction = 0; direction < this.mDeltas.length; direction++) {
+			this.mDeltas[direction] = simulation.getDirectionDelta(direction);
+		}
+	}
+	
+	
+	
+	public int chooseDirection(final int cycle) {
+		final Simulation simulation = this.mSimulation;
+		final byte[] board = simulation.getBoard();
+		final int head = simulation.getHead(cycle);
+		
+		//Played if there is no time to search at all
+		int best = simulation.chooseFallbackDirection(cycle);
+		
+		final int rival = simulation.findRival(cycle);
+		this.mDeadline = simulation.getDeadline();
+		if ((rival < 0) || (this.countMoves(board, head) <= 1) || (System.nanoTime() >= this.mDeadline)) {
+			return best;
+		}
+		
+		final int rivalHead = simulation.getHead(rival);
+		this.mOthers[0] = rivalHead;
+		this.mOtherCount = 1;
+		for (int other = 0; other < simulation.getCycleCount(); other++) {
+			if ((other != cycle) && (other != rival) && simulation.isAlive(other)) {
+				this.mOthers[this.mOtherCount++] = simulation.getHead(other);
+			}
+		}
+		
+		//Going straight is searched first until there are scores to go by
+		this.mRootOrder[0] = best;
+		for (int direction = 0, i = 1; direction < MinimaxStrategy.DIRECTION_COUNT; direction++) {
+			if (direction != best) {
+				this.mRootOrder[i++] = direction;
+			}
+		}
+		
+		for (int depth = 1; depth <= MinimaxStrategy.MAX_DEPTH; depth++) {
+			this.mIsAborted = false;
+			this.mIsDepthLimited = false;
+			
+			int alpha = -MinimaxStrategy.INFINITY;
+			int iterationBest = -1;
+			for (int i = 0; i < MinimaxStrategy.DIRECTION_COUNT; i++) {
+				final int direction = this.mRootOrder[i];
+				final int next = head + this.mDeltas[direction];
+				if (board[next] != Simulation.CELL_BLANK) {
+					this.mRootScores[direction] = -MinimaxStrategy.INFINITY;
+					continue;
+				}
+				
+				board[next] = Simulation.CELL_WALL;
+				final int score = this.minimize(depth, 1, alpha, MinimaxStrategy.INFINITY, next, rivalHead);
+				board[next] = Simulation.CELL_BLANK;
+				if (this.mIsAborted) {
+					break;
+				}
+				
+				this.mRootScores[direction] = score;
+				if (score > alpha) {
+					alpha = score;
+					iterationBest = direction;
+				}
+			}
+			if (this.mIsAborted) {
+				//Only finished searches are trusted
+				break;
+			}
+			
+			best = iterationBest;
+			this.sortRootOrder();
+			if (!this.mIsDepthLimited || (Math.abs(alpha) >= (MinimaxStrategy.WIN - MinimaxStrategy.MAX_DEPTH * 2))) {
+				//Every line was played to its end
+				break;
+			}
+		}
+		return best;
+	}
+	
+	/**
+	 * Search the moves of the cycle being decided for.
+	 * 
+	 * @param depth Number of moves of each cycle left to search.
+	 * @param ply Number of moves made since the root.
+	 * @param alpha Score the cycle is already assured of.
+	 * @param beta Score the rival is already assured of.
+	 * @param self Head of the cycle.
+	 * @param rival Head of the rival.
+	 * @return Score of the position.
+	 */
+	private int maximize(final int depth, final int ply, int alpha, final int beta, final int self, final int rival) {
+		if (this.isOutOfTime()) {
+			return 0;
+		}
+		
+		final byte[] board = this.mSimulation.getBoard();
+		final int killer = this.mKillers[ply];
+		boolean hasMove = false;
+		for (int i = 0; i < MinimaxStrategy.DIRECTION_COUNT; i++) {
+			final int direction = MinimaxStrategy.getOrderedDirection(i, killer);
+			final int next = self + this.mDeltas[direction];
+			if (board[next] != Simulation.CELL_BLANK) {
+				continue;
+			}
+			hasMove = true;
+			
+			board[next] = Simulation.CELL_WALL;
+			final int score = this.minimize(depth, ply + 1, alpha, beta, next, rival);
+			board[next] = Simulation.CELL_BLANK;
+			if (this.mIsAborted) {
+				return 0;
+			}
+			
+			if (score > alpha) {
+				alpha = score;
+				if (alpha >= beta) {
+					this.mKillers[ply] = direction;
+					break;
+				}
+			}
+		}
+		return hasMove ? alpha : -(MinimaxStrategy.WIN - ply);
+	}
+	
+	/**
+	 * Search the moves of the rival, after the cycle being decided for has moved.
+	 * 
+	 * @param depth Number of moves of each cycle left to search.
+	 * @param ply Number of moves made since the root.
+	 * @param alpha Score the cycle is already assured of.
+	 * @param beta Score the rival is already assured of.
+	 * @param self Head of the cycle.
+	 * @param rival Head of the rival.
+	 * @return Score of the position.
+	 */
+	private int minimize(final int depth, final int ply, final int alpha, int beta, final int self, final int rival) {
+		if (this.isOutOfTime()) {
+			return 0;
+		}
+		
+		final byte[] board = this.mSimulation.getBoard();
+		final int killer = this.mKillers[ply];
+		boolean hasMove = false;
+		for (int i = 0; i < MinimaxStrategy.DIRECTION_COUNT; i++) {
+			final int direction = MinimaxStrategy.getOrderedDirection(i, killer);
+			final int next = rival + this.mDeltas[direction];
+			final int score;
+			if (next == self) {
+				//Head on, neither survives
+				score = 0;
+			} else if (board[next] != Simulation.CELL_BLANK) {
+				continue;
+			} else {
+				board[next] = Simulation.CELL_WALL;
+				if (depth == 1) {
+					this.mIsDepthLimited = true;
+					score = this.evaluate(self, next);
+				} else {
+					score = this.maximize(depth - 1, ply + 1, alpha, beta, self, next);
+				}
+				board[next] = Simulation.CELL_BLANK;
+				if (this.mIsAborted) {
+					return 0;
+				}
+			}
+			hasMove = true;
+			
+			if (score < beta) {
+				beta = score;
+				if (beta <= alpha) {
+					this.mKillers[ply] = direction;
+					break;
+				}
+			}
+		}
+		return hasMove ? beta : (MinimaxStrategy.WIN - ply);
+	}
+	
+	/**
+	 * Score a position by territory unless the evaluation is expected to
+	 * run past the deadline, in which case the search is aborted instead.
+	 * 
+	 * @param self Head of the cycle.
+	 * @param rival Head of the rival.
+	 * @return Score of the position.
+	 */
+	private int evaluate(final int self, final int rival) {
+		final long start = System.nanoTime();
+		if ((start + this.mEvaluationCost) >= this.mDeadline) {
+			//Forget a little so one slow evaluation cannot stop every later search
+			this.mEvaluationCost -= this.mEvaluationCost >> MinimaxStrategy.COST_SHIFT;
+			this.mIsAborted = true;
+			return 0;
+		}
+		
+		this.mOthers[0] = rival;
+		final int score = this.mTerritory.evaluate(this.mSimulation.getBoard(), self, this.mOthers, this.mOtherCount);
+		this.mEvaluationCost += ((System.nanoTime() - start) - this.mEvaluationCost) >> MinimaxStrategy.COST_SHIFT;
+		return score;
+	}
+	
+	/**
+	 * Get the direction to try at a position in the move order, starting
+	 * with the one which last caused a cutoff.
+	 * 
+	 * @param index Position in the move order.
+	 * @param killer Direction ordinal to try first.
+	 * @return Direction ordinal.
+	 */
+	private static int getOrderedDirection(final int index, final int killer) {
+		if (index == 0) {
+			return killer;
+		}
+		return (index <= killer) ? index - 1 : index;
+	}
+	
+	/**
+	 * Check the deadline, marking the search as aborted once it has passed.
+	 * 
+	 * @return Whether or not the search must stop.
+	 */
+	private boolean isOutOfTime() {
+		if (!this.mIsAborted && (System.nanoTime() >= this.mDeadline)) {
+			this.mIsAborted = true;
+		}
+		return this.mIsAborted;
+	}
+	
+	/**
+	 * Order the root moves by their scores in the last search, best first.
+	 */
+	private void sortRootOrder() {
+		final int[] order = this.mRootOrder;
+		for (int i = 1; i < order.length; i++) {
+			final int direction = order[i];
+			int j = i - 1;
+			while ((j >= 0) && (this.mRootScores[order[j]] < this.mRootScores[direction])) {
+				order[j + 1] = order[j];
+				j -= 1;
+			}
+			order[j + 1] = direction;
+		}
+	}
+	
+	/**
+	 * Count the legal moves from a cell.
+	 * 
+	 * @param board Board cells.
+	 * @param cell Board index.
+	 * @return Move count.
+	 */
+	private int countMoves(final byte[] board, final int cell) {
+		int moves = 0;
+		for (int direction = 0; direction < MinimaxStrategy.DIRECTION_COUNT; direction++) {
+			if (board[cell + this.mDeltas[direction]] == Simulation.CELL_BLANK) {
+				moves += 1;
+			}
+		}
+		return moves;
+	}
+}
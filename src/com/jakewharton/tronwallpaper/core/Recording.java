@@ -0,0 +1,350 @@
+package com.jakewharton.tronwallpaper.core;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A whole round captured for later playback.
+ * 
+ * Only what cannot be derived is kept: the layout, the settings which
+ * affect timing, the random state and starting cell of every cycle, and
+ * the direction each cycle chose on every move packed into two bits.
+ * Playing it back through {@link Simulation#play(Recording)} re-simulates
+ * the round exactly without consulting the AI or the user.
+ * 
+ * @author Jake Wharton
+ */
+public final class Recording {
+	/**
+	 * Version of the format written by {@link #write(DataOutput)}.
+	 */
+	private static final int VERSION = 2;
+	
+	/**
+	 * Number of bits a direction ordinal is packed into.
+	 */
+	private static final int TURN_BITS = 2;
+	
+	/**
+	 * Number of turns packed into a byte.
+	 */
+	private static final int TURNS_PER_BYTE = 8 / Recording.TURN_BITS;
+	
+	/**
+	 * Mask of a packed direction ordinal.
+	 */
+	private static final int TURN_MASK = (1 << Recording.TURN_BITS) - 1;
+	
+	/**
+	 * Number of bytes of turns which can be held before the buffer first needs to grow.
+	 */
+	private static final int INITIAL_CAPACITY = 1024;
+	
+	
+	
+	/**
+	 * Layout of the board the round was played on.
+	 */
+	private Layout mLayout;
+	
+	/**
+	 * Number of light cycles in the round.
+	 */
+	private final int mCycleCount;
+	
+	/**
+	 * Maximum number of cells in a trail, or zero if trails were unbounded.
+	 */
+	private int mMaxTrailLength;
+	
+	/**
+	 * Units of simulated time between the moves of each cycle.
+	 */
+	private final int[] mPeriods;
+	
+	/**
+	 * State of the random number generator when the round started.
+	 */
+	private long mSeed;
+	
+	/**
+	 * Board index each cycle started on.
+	 */
+	private final int[] mStarts;
+	
+	/**
+	 * Direction ordinal of every move in the order they were made, four to a byte.
+	 */
+	private byte[] mTurns;
+	
+	/**
+	 * Number of turns recorded.
+	 */
+	private int mTurnCount;
+	
+	/**
+	 * Tick count of the simulation when the round started.
+	 */
+	private long mStartTick;
+	
+	/**
+	 * Number of ticks the round lasted.
+	 */
+	private long mTicks;
+	
+	/**
+	 * Whether or not the round has ended and the recording is whole.
+	 */
+	private boolean mIsComplete;
+	
+	
+	
+	/**
+	 * Create an empty recording.
+	 * 
+	 * @param cycleCount Number of light cycles in the round.
+	 */
+	/*package*/Recording(final int cycleCount) {
+		this.mCycleCount = cycleCount;
+		this.mPeriods = new int[cycleCount];
+		this.mStarts = new int[cycleCount];
+		this.mTurns = new byte[Recording.INITIAL_CAPACITY];
+	}
+	
+	
+	
+	/**
+	 * Get the layout of the board the round was played on.
+	 * 
+	 * @return Layout.
+	 */
+	public Layout getLayout() {
+		return this.mLayout;
+	}
+	
+	/**
+	 * Get the number of light cycles in the round.
+	 * 
+	 * @return Cycle count.
+	 */
+	public int getCycleCount() {
+		return this.mCycleCount;
+	}
+	
+	/**
+	 * Get the state of the random number generator when the round started.
+	 * 
+	 * @return Random state.
+	 */
+	public long getSeed() {
+		return this.mSeed;
+	}
+	
+	/**
+	 * Get the number of ticks the round lasted.
+	 * 
+	 * @return Tick count.
+	 */
+	public long getTicks() {
+		return this.mTicks;
+	}
+	
+	/**
+	 * Get the number of moves made in the round, including the final crash of each cycle.
+	 * 
+	 * @return Move count.
+	 */
+	public int getTurnCount() {
+		return this.mTurnCount;
+	}
+	
+	/**
+	 * Get the number of bytes the turns are packed into.
+	 * 
+	 * @return Byte count.
+	 */
+	public int getTurnBytes() {
+		return (this.mTurnCount + Recording.TURNS_PER_BYTE - 1) / Recording.TURNS_PER_BYTE;
+	}
+	
+	/**
+	 * Get whether or not the round has ended and the recording is whole.
+	 * 
+	 * @return Boolean.
+	 */
+	public boolean isComplete() {
+		return this.mIsComplete;
+	}
+	
+	/**
+	 * Get the maximum number of cells in a trail.
+	 * 
+	 * @return Cell count, or zero if trails were unbounded.
+	 */
+	/*package*/int getMaxTrailLength() {
+		return this.mMaxTrailLength;
+	}
+	
+	/**
+	 * Get the units of simulated time between the moves of a cycle.
+	 * 
+	 * @param cycle Cycle number.
+	 * @return Period.
+	 */
+	/*package*/int getPeriod(final int cycle) {
+		return this.mPeriods[cycle];
+	}
+	
+	/**
+	 * Get the cell a cycle started on.
+	 * 
+	 * @param cycle Cycle number.
+	 * @return Board index.
+	 */
+	/*package*/int getStart(final int cycle) {
+		return this.mStarts[cycle];
+	}
+	
+	/**
+	 * Get the direction of a move.
+	 * 
+	 * @param turn Move number, less than {@link #getTurnCount()}.
+	 * @return Direction ordinal.
+	 */
+	/*package*/int getTurn(final int turn) {
+		final int shift = (turn % Recording.TURNS_PER_BYTE) * Recording.TURN_BITS;
+		return (this.mTurns[turn / Recording.TURNS_PER_BYTE] >> shift) & Recording.TURN_MASK;
+	}
+	
+	/**
+	 * Forget the previous round and start recording a new one. The buffer
+	 * of turns is kept so recording does not allocate once it is big enough.
+	 * 
+	 * @param layout Layout of the board.
+	 * @param maxTrailLength Maximum number of cells in a trail, or zero if trails are unbounded.
+	 * @param periods Units of simulated time between the moves of each cycle.
+	 * @param seed State of the random number generator.
+	 * @param startTick Tick count of the simulation.
+	 */
+	/*package*/void begin(final Layout layout, final int maxTrailLength, final int[] periods, final long seed, final long startTick) {
+		this.mLayout = layout;
+		this.mMaxTrailLength = maxTrailLength;
+		System.arraycopy(periods, 0, this.mPeriods, 0, this.mCycleCount);
+		this.mSeed = seed;
+		this.mStartTick = startTick;
+		this.mTicks = 0;
+		this.mTurnCount = 0;
+		this.mIsComplete = false;
+	}
+	
+	/**
+	 * Record the cell a cycle started on.
+	 * 
+	 * @param cycle Cycle number.
+	 * @param cell Board index.
+	 */
+	/*package*/void setStart(final int cycle, final int cell) {
+		this.mStarts[cycle] = cell;
+	}
+	
+	/**
+	 * Record the direction of the next move.
+	 * 
+	 * @param direction Direction ordinal.
+	 */
+	/*package*/void recordTurn(final int direction) {
+		final int index = this.mTurnCount / Recording.TURNS_PER_BYTE;
+		final int shift = (this.mTurnCount % Recording.TURNS_PER_BYTE) * Recording.TURN_BITS;
+		if (index == this.mTurns.length) {
+			final byte[] turns = new byte[this.mTurns.length * 2];
+			System.arraycopy(this.mTurns, 0, turns, 0, this.mTurns.length);
+			this.mTurns = turns;
+		}
+		if (shift == 0) {
+			this.mTurns[index] = (byte)direction;
+		} else {
+			this.mTurns[index] |= (byte)(direction << shift);
+		}
+		this.mTurnCount += 1;
+	}
+	
+	/**
+	 * Mark the round as ended.
+	 * 
+	 * @param endTick Tick count of the simulation.
+	 */
+	/*package*/void finish(final long endTick) {
+		this.mTicks = endTick - this.mStartTick;
+		this.mIsComplete = true;
+	}
+	
+	/**
+	 * Write a complete recording.
+	 * 
+	 * @param out Output.
+	 * @throws IOException if the output could not be written.
+	 */
+	public void write(final DataOutput out) throws IOException {
+		if (!this.mIsComplete) {
+			throw new IllegalStateException("Round has not ended.");
+		}
+		
+		out.writeInt(Recording.VERSION);
+		this.mLayout.write(out);
+		out.writeInt(this.mCycleCount);
+		out.writeInt(this.mMaxTrailLength);
+		out.writeLong(this.mSeed);
+		for (int cycle = 0; cycle < this.mCycleCount; cycle++) {
+			out.writeInt(this.mPeriods[cycle]);
+			out.writeInt(this.mStarts[cycle]);
+		}
+		out.writeLong(this.mTicks);
+		out.writeInt(this.mTurnCount);
+		out.write(this.mTurns, 0, this.getTurnBytes());
+	}
+	
+	/**
+	 * Read a recording written by {@link #write(DataOutput)}.
+	 * 
+	 * @param in Input.
+	 * @return Complete recording.
+	 * @throws IOException if the input could not be read or is not a recording.
+	 */
+	public static Recording read(final DataInput in) throws IOException {
+		if (in.readInt() != Recording.VERSION) {
+			throw new IOException("Recording version is not supported.");
+		}
+		final Layout layout = Layout.read(in);
+		final int cycleCount = in.readInt();
+		if ((cycleCount < Simulation.MIN_CYCLES) || (cycleCount > Simulation.MAX_CYCLES)) {
+			throw new IOException("Recording cycle count is invalid.");
+		}
+		final int maxTrailLength = in.readInt();
+		if (maxTrailLength < 0) {
+			throw new IOException("Recording trail length is negative.");
+		}
+		
+		final Recording recording = new Recording(cycleCount);
+		recording.mLayout = layout;
+		recording.mMaxTrailLength = maxTrailLength;
+		recording.mSeed = in.readLong();
+		for (int cycle = 0; cycle < cycleCount; cycle++) {
+			recording.mPeriods[cycle] = in.readInt();
+			recording.mStarts[cycle] = in.readInt();
+			if (recording.mPeriods[cycle] < Simulation.MIN_PERIOD) {
+				//Per-tick buffers are only sized for cycles up to the top speed
+				throw new IOException("Recording speed is invalid.");
+			}
+		}
+		recording.mTicks = in.readLong();
+		recording.mTurnCount = in.readInt();
+		if (recording.mTurnCount < 0) {
+			throw new IOException("Recording turn count is negative.");
+		}
+		recording.mTurns = new byte[Math.max(recording.getTurnBytes(), 1)];
+		in.readFully(recording.mTurns, 0, recording.getTurnBytes());
+		recording.mIsComplete = true;
+		return recording;
+	}
+}
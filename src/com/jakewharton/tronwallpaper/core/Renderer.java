@@ -0,0 +1,39 @@
+package com.jakewharton.tronwallpaper.core;
+
+/**
+ * Drawing backend for the board. All coordinates are in cells.
+ * 
+ * @author Jake Wharton
+ */
+public interface Renderer {
+	/**
+	 * Fill a single cell.
+	 * 
+	 * @param x X coordinate.
+	 * @param y Y coordinate.
+	 * @param color ARGB color.
+	 */
+	void drawCell(int x, int y, int color);
+	
+	/**
+	 * Fill a rectangle of cells.
+	 * 
+	 * @param left Left edge.
+	 * @param top Top edge.
+	 * @param right Right edge (exclusive).
+	 * @param bottom Bottom edge (exclusive).
+	 * @param color ARGB color.
+	 */
+	void fillCells(int left, int top, int right, int bottom, int color);
+	
+	/**
+	 * Outline a wall rectangle.
+	 * 
+	 * @param left Left edge.
+	 * @param top Top edge.
+	 * @param right Right edge (exclusive).
+	 * @param bottom Bottom edge (exclusive).
+	 * @param color ARGB color.
+	 */
+	void drawWall(int left, int top, int right, int bottom, int color);
+}
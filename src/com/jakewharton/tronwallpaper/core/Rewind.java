@@ -0,0 +1,211 @@
+package com.jakewharton.tronwallpaper.core;
+
+/**
+ * Bounded history of the moves made in the last few ticks of a round.
+ * 
+ * Only the cell each cycle moved to and the direction it moved in are kept,
+ * never copies of the board. The board as it was a number of ticks ago is
+ * the current board without the moves made since. All storage is allocated
+ * up front and recording reuses it in a ring.
+ * 
+ * @author Jake Wharton
+ */
+public final class Rewind {
+	/**
+	 * Number of bits a direction ordinal is packed into.
+	 */
+	private static final int DIRECTION_BITS = 2;
+	
+	/**
+	 * Mask of a packed direction ordinal.
+	 */
+	private static final int DIRECTION_MASK = (1 << Rewind.DIRECTION_BITS) - 1;
+	
+	/**
+	 * Every direction indexed by ordinal.
+	 */
+	private static final Direction[] DIRECTIONS = Direction.values();
+	
+	
+	
+	/**
+	 * Number of cycles moves are recorded for.
+	 */
+	private final int mCycleCount;
+	
+	/**
+	 * Number of move counts recorded at the start of each tick, indexed by tick count modulo the capacity.
+	 */
+	private final long[] mTickStarts;
+	
+	/**
+	 * Board index each move went to, indexed by move count modulo the capacity.
+	 */
+	private final int[] mMoveCells;
+	
+	/**
+	 * Cycle number and direction ordinal of each move, packed, indexed by move count modulo the capacity.
+	 */
+	private final byte[] mMoves;
+	
+	/**
+	 * Number of ticks recorded since the history was cleared.
+	 */
+	private long mTickCount;
+	
+	/**
+	 * Number of moves recorded since the history was cleared.
+	 */
+	private long mMoveCount;
+	
+	
+	
+	/**
+	 * Create an empty history.
+	 * 
+	 * @param cycleCount Number of cycles in the simulation it records.
+	 * @param ticks Number of most recent ticks to keep.
+	 */
+	public Rewind(final int cycleCount, final int ticks) {
+		if (ticks < 1) {
+			throw new IllegalArgumentException("Ticks must be at least one.");
+		}
+		
+		this.mCycleCount = cycleCount;
+		this.mTickStarts = new long[ticks];
+		
+		//Cycles at the top speed move several times per tick
+		final int moves = ticks * cycleCount * (int)Math.ceil(Simulation.MAX_SPEED);
+		this.mMoveCells = new int[moves];
+		this.mMoves = new byte[moves];
+	}
+	
+	
+	
+	/**
+	 * Get the number of cycles moves are recorded for.
+	 * 
+	 * @return Cycle count.
+	 */
+	public int getCycleCount() {
+		return this.mCycleCount;
+	}
+	
+	/**
+	 * Get the number of most recent ticks which are kept.
+	 * 
+	 * @return Tick count.
+	 */
+	public int getCapacity() {
+		return this.mTickStarts.length;
+	}
+	
+	/**
+	 * Get the number of ticks which can currently be rewound.
+	 * 
+	 * @return Tick count.
+	 */
+	public int getTickCount() {
+		return (int)Math.min(this.mTickCount, this.mTickStarts.length);
+	}
+	
+	/**
+	 * Forget every recorded tick.
+	 */
+	public void clear() {
+		this.mTickCount = 0;
+		this.mMoveCount = 0;
+	}
+	
+	/**
+	 * Start recording a new tick.
+	 */
+	/*package*/void beginTick() {
+		this.mTickStarts[(int)(this.mTickCount % this.mTickStarts.length)] = this.mMoveCount;
+		this.mTickCount += 1;
+	}
+	
+	/**
+	 * Record a move in the current tick.
+	 * 
+	 * @param cycle Cycle number.
+	 * @param cell Board index moved to.
+	 * @param direction Direction ordinal moved in.
+	 */
+	/*package*/void recordMove(final int cycle, final int cell, final int direction) {
+		final int index = (int)(this.mMoveCount % this.mMoveCells.length);
+		this.mMoveCells[index] = cell;
+		this.mMoves[index] = (byte)((cycle << Rewind.DIRECTION_BITS) | direction);
+		this.mMoveCount += 1;
+	}
+	
+	/**
+	 * Get the first move made in the most recent ticks.
+	 * 
+	 * @param ticks Number of ticks back, at most {@link #getTickCount()}.
+	 * @return Move number.
+	 */
+	public long getFirstMove(final int ticks) {
+		if ((ticks < 0) || (ticks > this.getTickCount())) {
+			throw new IllegalArgumentException("Only " + this.getTickCount() + " ticks can be rewound.");
+		}
+		if (ticks == 0) {
+			return this.mMoveCount;
+		}
+		return this.mTickStarts[(int)((this.mTickCount - ticks) % this.mTickStarts.length)];
+	}
+	
+	/**
+	 * Get the number following the most recent move.
+	 * 
+	 * @return Move number.
+	 */
+	public long getEndMove() {
+		return this.mMoveCount;
+	}
+	
+	/**
+	 * Get the cycle which made a move.
+	 * 
+	 * @param move Move number, between {@link #getFirstMove(int)} and {@link #getEndMove()}.
+	 * @return Cycle number.
+	 */
+	public int getMoveCycle(final long move) {
+		return (this.mMoves[(int)(move % this.mMoves.length)] & 0xff) >> Rewind.DIRECTION_BITS;
+	}
+	
+	/**
+	 * Get the cell a move went to.
+	 * 
+	 * @param move Move number, between {@link #getFirstMove(int)} and {@link #getEndMove()}.
+	 * @return Board index.
+	 */
+	public int getMoveCell(final long move) {
+		return this.mMoveCells[(int)(move % this.mMoveCells.length)];
+	}
+	
+	/**
+	 * Get the direction of a move.
+	 * 
+	 * @param move Move number, between {@link #getFirstMove(int)} and {@link #getEndMove()}.
+	 * @return Direction.
+	 */
+	public Direction getMoveDirection(final long move) {
+		return Rewind.DIRECTIONS[this.mMoves[(int)(move % this.mMoves.length)] & Rewind.DIRECTION_MASK];
+	}
+	
+	/**
+	 * Count the moves each cycle made in the most recent ticks.
+	 * 
+	 * @param ticks Number of ticks back, at most {@link #getTickCount()}.
+	 * @param counts Move count of each cycle, filled in. Must hold at least {@link #getCycleCount()} values.
+	 */
+	public void countMoves(final int ticks, final int[] counts) {
+		for (int cycle = 0; cycle < this.mCycleCount; cycle++) {
+			counts[cycle] = 0;
+		}
+		for (long move = this.getFirstMove(ticks); move < this.mMoveCount; move++) {
+			counts[this.getMoveCycle(move)] += 1;
+		}
+	}
+}
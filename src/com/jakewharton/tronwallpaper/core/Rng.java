@@ -0,0 +1,96 @@
+package com.jakewharton.tronwallpaper.core;
+
+/**
+ * Fast, seedable, non-synchronized random number generator (SplitMix64).
+ * 
+ * Unlike {@link java.util.Random} this performs no atomic operations and
+ * its entire state is a single <code>long</code> so it can be saved and
+ * restored exactly.
+ * 
+ * @author Jake Wharton
+ */
+public final class Rng {
+	/**
+	 * Increment applied to the state for every number generated.
+	 */
+	private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+	
+	
+	
+	/**
+	 * Seed this generator was created with.
+	 */
+	private final long mSeed;
+	
+	/**
+	 * Current state.
+	 */
+	private long mState;
+	
+	
+	
+	/**
+	 * Create a new generator.
+	 * 
+	 * @param seed Seed.
+	 */
+	public Rng(final long seed) {
+		this.mSeed = seed;
+		this.mState = seed;
+	}
+	
+	
+	
+	/**
+	 * Get the seed this generator was created with.
+	 * 
+	 * @return Seed.
+	 */
+	public long getSeed() {
+		return this.mSeed;
+	}
+	
+	/**
+	 * Get the current state so that the sequence can be resumed later.
+	 * 
+	 * @return State.
+	 */
+	public long getState() {
+		return this.mState;
+	}
+	
+	/**
+	 * Resume the sequence from a previously saved state.
+	 * 
+	 * @param state State from {@link #getState()}.
+	 */
+	public void setState(final long state) {
+		this.mState = state;
+	}
+	
+	/**
+	 * Get the next random <code>long</code>.
+	 * 
+	 * @return Random value.
+	 */
+	public long nextLong() {
+		long z = (this.mState += Rng.GOLDEN_GAMMA);
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+	
+	/**
+	 * Get a random <code>int</code> in the range [0, bound).
+	 * 
+	 * @param bound Exclusive upper bound. Must be positive.
+	 * @return Random value.
+	 */
+	public int nextInt(final int bound) {
+		if (bound <= 0) {
+			throw new IllegalArgumentException("Bound must be positive.");
+		}
+		//Scale the high 32 bits into the range without a division
+		return (int)(((this.nextLong() >>> 32) * bound) >>> 32);
+	}
+}
@@ -0,0 +1,276 @@
+package com.jakewharton.tronwallpaper.core;
+
+/**
+ * Draws the trails and walls of a {@link Simulation} to a {@link Renderer}.
+ * 
+ * @author Jake Wharton
+ */
+public class Scene {
+	/**
+	 * Default color of each cycle, indexed by cycle number.
+	 */
+	private static final int[] CYCLE_COLORS = {
+		0xff60ebfe, 0xffffc200, 0xffff3b3b, 0xff4cff4c,
+		0xffff4cff, 0xffffffff, 0xff4c7cff, 0xffff8c1a,
+		0xffb266ff, 0xffccff33, 0xffff66a3, 0xff33ffcc,
+		0xffffe680, 0xff99ccff, 0xffcc9966, 0xff999999,
+	};
+	
+	
+	
+	/**
+	 * Color of each cycle, indexed by cycle number.
+	 */
+	private final int[] mCycleColors;
+	
+	/**
+	 * Walls color.
+	 */
+	private int mWallsColor;
+	
+	/**
+	 * Whether or not we are displaying icon walls
+	 */
+	private boolean mIsDisplayingWalls;
+	
+	/**
+	 * Number of moves each cycle made since the point being drawn, indexed by cycle number.
+	 */
+	private final int[] mRewoundMoves;
+	
+	
+	
+	/**
+	 * Create a new scene with the default cycle colors.
+	 */
+	public Scene() {
+		this.mCycleColors = new int[Simulation.MAX_CYCLES];
+		System.arraycopy(Scene.CYCLE_COLORS, 0, this.mCycleColors, 0, Simulation.MAX_CYCLES);
+		this.mRewoundMoves = new int[Simulation.MAX_CYCLES];
+	}
+	
+	
+	
+	/**
+	 * Set the color of a cycle.
+	 * 
+	 * @param cycle Cycle number.
+	 * @param color ARGB color.
+	 */
+	public void setCycleColor(final int cycle, final int color) {
+		this.mCycleColors[cycle] = color;
+	}
+	
+	/**
+	 * Get the color of a cycle.
+	 * 
+	 * @param cycle Cycle number.
+	 * @return ARGB color.
+	 */
+	public int getCycleColor(final int cycle) {
+		return this.mCycleColors[cycle];
+	}
+	
+	/**
+	 * Set the walls color.
+	 * 
+	 * @param color ARGB color.
+	 */
+	public void setWallsColor(final int color) {
+		this.mWallsColor = color;
+	}
+	
+	/**
+	 * Get the walls color.
+	 * 
+	 * @return ARGB color.
+	 */
+	public int getWallsColor() {
+		return this.mWallsColor;
+	}
+	
+	/**
+	 * Set whether or not the icon walls are drawn.
+	 * 
+	 * @param isDisplayingWalls Boolean.
+	 */
+	public void setIsDisplayingWalls(final boolean isDisplayingWalls) {
+		this.mIsDisplayingWalls = isDisplayingWalls;
+	}
+	
+	/**
+	 * Get whether or not the icon walls are drawn.
+	 * 
+	 * @return Boolean.
+	 */
+	public boolean isDisplayingWalls() {
+		return this.mIsDisplayingWalls;
+	}
+	
+	/**
+	 * Render the trails and walls.
+	 * 
+	 * @param simulation Simulation to draw.
+	 * @param renderer Renderer to draw on.
+	 */
+	public void draw(final Simulation simulation, final Renderer renderer) {
+		//draw light cycles
+		this.drawTrails(simulation, 0, 0, 0, renderer);
+		
+		//draw walls if enabled
+		if (this.mIsDisplayingWalls) {
+			this.drawWalls(simulation.getLayout(), renderer);
+		}
+	}
+	
+	/**
+	 * Render the trails of every arena and the walls of the whole launcher.
+	 * 
+	 * @param grid Arenas to draw.
+	 * @param renderer Renderer to draw on.
+	 */
+	public void draw(final ArenaGrid grid, final Renderer renderer) {
+		this.draw(grid, 0, renderer);
+	}
+	
+	/**
+	 * Render every arena as it was a number of ticks ago, as far back as
+	 * its recorded history allows, and the walls of the whole launcher.
+	 * 
+	 * @param grid Arenas to draw.
+	 * @param ticksAgo Number of ticks to rewind.
+	 * @param renderer Renderer to draw on.
+	 */
+	public void draw(final ArenaGrid grid, final int ticksAgo, final Renderer renderer) {
+		//draw light cycles
+		for (int arena = 0; arena < grid.getArenaCount(); arena++) {
+			this.drawTrails(grid.getArena(arena), ticksAgo, grid.getArenaLeft(arena), grid.getArenaTop(arena), renderer);
+		}
+		
+		//draw walls if enabled
+		if (this.mIsDisplayingWalls) {
+			this.drawWalls(grid.getLayout(), renderer);
+		}
+	}
+	
+	/**
+	 * Render only what changed in the most recent tick of a simulation onto
+	 * a renderer which still holds the previous frame. Claimed cells are
+	 * filled with the cycle color and released cells with the background.
+	 * The caller must do this after every tick, or redraw in full.
+	 * 
+	 * @param simulation Simulation which publishes its events.
+	 * @param background ARGB color of a blank cell.
+	 * @param renderer Renderer holding the previous frame.
+	 * @return Whether or not the changes were drawn. If not the frame must be redrawn in full.
+	 */
+	public boolean drawEvents(final Simulation simulation, final int background, final Renderer renderer) {
+		if (!Scene.isDrawable(simulation.getEvents())) {
+			return false;
+		}
+		final TickEvents events = simulation.getEvents();
+		for (int event = 0; event < events.getCount(); event++) {
+			final int type = events.getType(event);
+			if ((type == TickEvents.CLAIM) || (type == TickEvents.RELEASE)) {
+				final int cell = events.getCell(event);
+				final int color = (type == TickEvents.CLAIM) ? this.mCycleColors[events.getCycle(event)] : background;
+				renderer.drawCell(simulation.getCellX(cell), simulation.getCellY(cell), color);
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Test whether a batch of events can be drawn over the previous frame.
+	 * 
+	 * @param events Events, or <code>null</code>.
+	 * @return Boolean.
+	 */
+	private static boolean isDrawable(final TickEvents events) {
+		return (events != null) && !events.hasReset();
+	}
+	
+	/**
+	 * Render every cell of every trail of a simulation.
+	 * 
+	 * Trails are mostly long straight stretches so each stretch is filled as
+	 * a single rectangle. This keeps the number of draw calls down to the
+	 * number of turns, no matter how fine the board is.
+	 * 
+	 * @param simulation Simulation the trails belong to.
+	 * @param ticksAgo Number of ticks to rewind. Limited to the recorded history.
+	 * @param left Horizontal offset (in cells) of the simulation.
+	 * @param top Vertical offset (in cells) of the simulation.
+	 * @param renderer Renderer to draw on.
+	 */
+	private void drawTrails(final Simulation simulation, final int ticksAgo, final int left, final int top, final Renderer renderer) {
+		//Moves since the point being drawn are cut off the head of each trail
+		final Rewind rewind = simulation.getRewind();
+		if ((ticksAgo > 0) && (rewind != null)) {
+			rewind.countMoves(Math.min(ticksAgo, rewind.getTickCount()), this.mRewoundMoves);
+		} else {
+			for (int cycle = 0; cycle < simulation.getCycleCount(); cycle++) {
+				this.mRewoundMoves[cycle] = 0;
+			}
+		}
+		
+		final int stride = simulation.getCellIndex(0, 1) - simulation.getCellIndex(0, 0);
+		for (int cycle = 0; cycle < simulation.getCycleCount(); cycle++) {
+			final int color = this.mCycleColors[cycle];
+			final int length = Math.max(simulation.getTrailLength(cycle) - this.mRewoundMoves[cycle], 0);
+			if (length == 0) {
+				continue;
+			}
+			
+			int first = simulation.getTrailCell(cycle, 0);
+			int last = first;
+			int step = 0;
+			for (int i = 1; i < length; i++) {
+				final int cell = simulation.getTrailCell(cycle, i);
+				final int delta = cell - last;
+				if ((delta == step) || ((step == 0) && ((delta == 1) || (delta == -1) || (delta == stride) || (delta == -stride)))) {
+					//Still going straight
+					step = delta;
+					last = cell;
+				} else {
+					Scene.fillStretch(simulation, first, last, left, top, color, renderer);
+					first = cell;
+					last = cell;
+					step = 0;
+				}
+			}
+			Scene.fillStretch(simulation, first, last, left, top, color, renderer);
+		}
+	}
+	
+	/**
+	 * Render a straight stretch of trail.
+	 * 
+	 * @param simulation Simulation the trail belongs to.
+	 * @param first Board index of one end.
+	 * @param last Board index of the other end.
+	 * @param left Horizontal offset (in cells) of the simulation.
+	 * @param top Vertical offset (in cells) of the simulation.
+	 * @param color ARGB color.
+	 * @param renderer Renderer to draw on.
+	 */
+	private static void fillStretch(final Simulation simulation, final int first, final int last, final int left, final int top, final int color, final Renderer renderer) {
+		final int x1 = simulation.getCellX(first);
+		final int y1 = simulation.getCellY(first);
+		final int x2 = simulation.getCellX(last);
+		final int y2 = simulation.getCellY(last);
+		renderer.fillCells(left + Math.min(x1, x2), top + Math.min(y1, y2), left + Math.max(x1, x2) + 1, top + Math.max(y1, y2) + 1, color);
+	}
+	
+	/**
+	 * Render the outline of every widget and uncovered icon.
+	 * 
+	 * @param layout Layout to draw.
+	 * @param renderer Renderer to draw on.
+	 */
+	private void drawWalls(final Layout layout, final Renderer renderer) {
+		for (int i = 0; i < layout.getWallCount(); i++) {
+			renderer.drawWall(layout.getWallLeft(i), layout.getWallTop(i), layout.getWallRight(i), layout.getWallBottom(i), this.mWallsColor);
+		}
+	}
+}
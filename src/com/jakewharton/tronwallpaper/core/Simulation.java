@@ -0,0 +1,1958 @@
+package com.jakewharton.tronwallpaper.core;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tron simulation: the board, the light cycles and their AI.
+ * 
+ * Cycle state is kept in parallel primitive arrays indexed by cycle number
+ * so that a tick only touches a few ints per cycle regardless of how long
+ * the trails are. Cycle {@link #PLAYER} is the one the user can steer.
+ * 
+ * This class has no Android dependencies so that it can be run, measured
+ * and tested on a plain JVM.
+ * 
+ * @author Jake Wharton
+ */
+public class Simulation {
+	/**
+	 * Cell value for a wall.
+	 */
+	public static final byte CELL_WALL = 0;
+	
+	/**
+	 * Cell value for a blank space.
+	 */
+	public static final byte CELL_BLANK = 1;
+	
+	/**
+	 * Cell value for a space occupied by the trail of cycle zero. Cycle
+	 * <code>n</code> occupies cells with the value <code>CELL_CYCLE + n</code>.
+	 */
+	public static final byte CELL_CYCLE = 2;
+	
+	/**
+	 * Cell value for a space occupied by the player's trail.
+	 */
+	public static final byte CELL_PLAYER = Simulation.CELL_CYCLE;
+	
+	/**
+	 * Cell value for a space occupied by the first opponent's trail.
+	 */
+	public static final byte CELL_OPPONENT = Simulation.CELL_CYCLE + 1;
+	
+	/**
+	 * Cycle number of the user controllable light cycle.
+	 */
+	public static final int PLAYER = 0;
+	
+	/**
+	 * Cycle number of the first opponent.
+	 */
+	public static final int OPPONENT = 1;
+	
+	/**
+	 * Smallest number of light cycles on a board.
+	 */
+	public static final int MIN_CYCLES = 2;
+	
+	/**
+	 * Largest number of light cycles on a board.
+	 */
+	public static final int MAX_CYCLES = 16;
+	
+	/**
+	 * Number of sentinel wall cells surrounding the board on each side.
+	 */
+	public static final int CELLS_BORDER = 1;
+	
+	/**
+	 * AI which goes straight and turns at random or when blocked.
+	 */
+	public static final int AI_WANDER = 0;
+	
+	/**
+	 * AI which moves to control the most territory.
+	 */
+	public static final int AI_TERRITORY = 1;
+	
+	/**
+	 * AI which searches its moves and those of its nearest rival for as long as the tick allows.
+	 */
+	public static final int AI_MINIMAX = 2;
+	
+	/**
+	 * AI which plays out random games against its nearest rival for as long as the tick allows.
+	 */
+	public static final int AI_MCTS = 3;
+	
+	/**
+	 * Number of AIs a cycle can be driven by.
+	 */
+	private static final int AI_COUNT = 4;
+	
+	/**
+	 * Default time searching AIs may think for in a single tick, in nanoseconds.
+	 */
+	public static final long DEFAULT_AI_BUDGET = 10000000L;
+	
+	/**
+	 * If a random number [0, RANDOM_TURN_MULTIPLIER) is 0 then randomly turn the light cycle.
+	 */
+	private static final int RANDOM_TURN_MULTIPLIER = 250;
+	
+	/**
+	 * Cached copy of all directions indexed by ordinal.
+	 */
+	private static final Direction[] DIRECTIONS = Direction.values();
+	
+	/**
+	 * Direction ordinal stored for a cycle which has not moved yet.
+	 */
+	private static final int DIRECTION_NONE = -1;
+	
+	/**
+	 * Units of simulated time in a single tick. A cycle at normal speed moves
+	 * once every this many units.
+	 */
+	private static final int TIME_PER_TICK = 1000;
+	
+	/**
+	 * Fastest speed of a cycle, relative to normal speed.
+	 */
+	public static final float MAX_SPEED = 4;
+	
+	/**
+	 * Shortest period between the moves of a cycle, which is that of a cycle at {@link #MAX_SPEED}.
+	 */
+	/*package*/static final int MIN_PERIOD = Math.round(Simulation.TIME_PER_TICK / Simulation.MAX_SPEED);
+	
+	/**
+	 * Number of cells a trail can hold before it first needs to grow. Must be
+	 * a power of two so that trail positions wrap with a mask.
+	 */
+	private static final int TRAIL_INITIAL_CAPACITY = 256;
+	
+	/**
+	 * Initial value of the state checksum (FNV-1a offset basis).
+	 */
+	private static final long CHECKSUM_BASIS = 0xcbf29ce484222325L;
+	
+	/**
+	 * Multiplier used to fold a value into the state checksum (FNV-1a prime).
+	 */
+	private static final long CHECKSUM_PRIME = 0x100000001b3L;
+	
+	/**
+	 * Value folded into the state checksum when a round is reset.
+	 */
+	private static final int CHECKSUM_NEW_GAME = -1;
+	
+	/**
+	 * Value folded into the checksum when the layout is patched.
+	 */
+	private static final int CHECKSUM_PATCH = -2;
+	
+	
+	
+	/**
+	 * Layout the board is built from.
+	 */
+	private Layout mLayout;
+	
+	/**
+	 * Random number generator for all decisions.
+	 */
+	private final Rng mRandom;
+	
+	/**
+	 * Number of cells on the board horizontally.
+	 */
+	private final int mCellsWide;
+	
+	/**
+	 * Number of cells on the board vertically.
+	 */
+	private final int mCellsTall;
+	
+	/**
+	 * Flattened array of the board's cells, including the sentinel wall border.
+	 */
+	private byte[] mBoard;
+	
+	/**
+	 * Blank board prepared by {@link #prepareBoard()} to replace {@link #mBoard}.
+	 */
+	private byte[] mSpareBoard;
+	
+	/**
+	 * Shared blank board for the layout which {@link #mBoard} is reset from.
+	 */
+	private BoardTemplates.Template mTemplate;
+	
+	/**
+	 * Template {@link #mSpareBoard} was last filled from.
+	 */
+	private BoardTemplates.Template mSpareTemplate;
+	
+	/**
+	 * Board indices of every blank cell. Only the first {@link #mFreeCount} are valid.
+	 */
+	private int[] mFreeCells;
+	
+	/**
+	 * Free cell index prepared by {@link #prepareBoard()} to replace {@link #mFreeCells}.
+	 */
+	private int[] mSpareFreeCells;
+	
+	/**
+	 * Position of each board index in {@link #mFreeCells}, or -1 if it is not blank.
+	 */
+	private int[] mFreePositions;
+	
+	/**
+	 * Free cell positions prepared by {@link #prepareBoard()} to replace {@link #mFreePositions}.
+	 */
+	private int[] mSpareFreePositions;
+	
+	/**
+	 * Number of blank cells on the board.
+	 */
+	private int mFreeCount;
+	
+	/**
+	 * Number of blank cells on the spare board.
+	 */
+	private int mSpareFreeCount;
+	
+	/**
+	 * Number of cells in a single row of the flattened board (including the border).
+	 */
+	private final int mBoardStride;
+	
+	/**
+	 * Board index offset of a single step in each direction indexed by ordinal.
+	 */
+	private final int[] mDirectionDeltas;
+	
+	/**
+	 * Number of light cycles on the board.
+	 */
+	private final int mCycleCount;
+	
+	/**
+	 * Board index of the head of each cycle.
+	 */
+	private final int[] mHeads;
+	
+	/**
+	 * Direction ordinal of each cycle, or {@link #DIRECTION_NONE}.
+	 */
+	private final int[] mDirections;
+	
+	/**
+	 * Whether or not each cycle is still riding in the current round.
+	 */
+	private final boolean[] mIsAlive;
+	
+	/**
+	 * Number of cycles still riding in the current round.
+	 */
+	private int mAliveCount;
+	
+	/**
+	 * Ring buffer of the board indices visited by each cycle in the order they were visited.
+	 */
+	private final int[][] mTrails;
+	
+	/**
+	 * Position of the oldest cell in each of {@link #mTrails}.
+	 */
+	private final int[] mTrailStarts;
+	
+	/**
+	 * Number of valid cells in each of {@link #mTrails}.
+	 */
+	private final int[] mTrailLengths;
+	
+	/**
+	 * Maximum number of cells in a trail, or zero if trails are unbounded.
+	 */
+	private int mMaxTrailLength;
+	
+	/**
+	 * Units of simulated time between the moves of each cycle.
+	 */
+	private final int[] mPeriods;
+	
+	/**
+	 * Cycles still riding ordered by the time of their next move.
+	 */
+	private final CycleScheduler mScheduler;
+	
+	/**
+	 * Simulated time since the board was created.
+	 */
+	private long mTime;
+	
+	/**
+	 * Direction ordinal the user wants us to travel in, or {@link #DIRECTION_NONE}.
+	 */
+	private int mWantsToGo;
+	
+	/**
+	 * Number of ticks since the board was created.
+	 */
+	private long mTicks;
+	
+	/**
+	 * Whether or not the state checksum is updated every tick.
+	 */
+	private boolean mIsChecksumming;
+	
+	/**
+	 * Rolling checksum of every cell claimed and round reset.
+	 */
+	private long mChecksum;
+	
+	/**
+	 * History of the most recent moves, or <code>null</code> if they are not recorded.
+	 */
+	private Rewind mRewind;
+	
+	/**
+	 * Whether or not a round which ends is left on the board until {@link #newGame()}.
+	 */
+	private boolean mIsHoldingRounds;
+	
+	/**
+	 * Round being recorded, or <code>null</code> if rounds are not recorded.
+	 */
+	private Recording mRecording;
+	
+	/**
+	 * Most recently recorded round, or <code>null</code> if rounds are not recorded.
+	 */
+	private Recording mLastRecording;
+	
+	/**
+	 * Whether or not the round in progress has been recorded from its start.
+	 */
+	private boolean mIsRecordingRound;
+	
+	/**
+	 * Recording whose turns are being played back, or <code>null</code> if the AI is deciding.
+	 */
+	private Recording mPlayback;
+	
+	/**
+	 * Number of turns of {@link #mPlayback} which have been played.
+	 */
+	private int mPlaybackTurn;
+	
+	/**
+	 * Changes published by the most recent tick, or <code>null</code> if they are not published.
+	 */
+	private TickEvents mEvents;
+	
+	/**
+	 * AI driving each cycle.
+	 */
+	private final int[] mAis;
+	
+	/**
+	 * Strategy of each AI, indexed by AI, created the first time a cycle uses it. {@link #AI_WANDER} has none.
+	 */
+	private final Strategy[] mStrategies;
+	
+	/**
+	 * Time searching AIs may think for in a single tick, in nanoseconds.
+	 */
+	private long mAiBudget;
+	
+	/**
+	 * Time at which searching AIs must stop thinking in the current tick, as given by {@link System#nanoTime()}.
+	 */
+	private long mTickDeadline;
+	
+	/**
+	 * Number of decisions by searching AIs still due in the current tick.
+	 */
+	private int mSearchesDue;
+	
+	/**
+	 * Time at which the searching AI deciding right now must stop thinking, as given by {@link System#nanoTime()}.
+	 */
+	private long mDeadline;
+	
+	/**
+	 * Number of decisions by the territory AI due in the current tick.
+	 */
+	private int mTerritoryDue;
+	
+	
+	
+	/**
+	 * Create a new simulation. The board must be initialized with
+	 * {@link #newBoard()} before the first {@link #tick()}.
+	 * 
+	 * @param layout Layout to build the board from.
+	 * @param cycleCount Number of light cycles, between {@link #MIN_CYCLES} and {@link #MAX_CYCLES}.
+	 * @param seed Seed for the random number generator used for all decisions.
+	 */
+	public Simulation(final Layout layout, final int cycleCount, final long seed) {
+		if ((cycleCount < Simulation.MIN_CYCLES) || (cycleCount > Simulation.MAX_CYCLES)) {
+			throw new IllegalArgumentException("Cycle count must be between " + Simulation.MIN_CYCLES + " and " + Simulation.MAX_CYCLES + ".");
+		}
+		
+		this.mLayout = layout;
+		this.mRandom = new Rng(seed);
+		
+		this.mCellsWide = layout.getCellsWide();
+		this.mCellsTall = layout.getCellsTall();
+		this.mBoardStride = this.mCellsWide + (2 * Simulation.CELLS_BORDER);
+		this.mTemplate = BoardTemplates.get(layout);
+		this.mBoard = new byte[this.mTemplate.cells.length];
+		//Patching the layout can free more cells than the template started with
+		this.mFreeCells = new int[this.mTemplate.cells.length];
+		this.mFreePositions = new int[this.mTemplate.cells.length];
+		this.mSpareBoard = new byte[this.mBoard.length];
+		this.mSpareFreeCells = new int[this.mFreeCells.length];
+		this.mSpareFreePositions = new int[this.mFreePositions.length];
+		
+		this.mDirectionDeltas = new int[Simulation.DIRECTIONS.length];
+		this.mDirectionDeltas[Direction.NORTH.ordinal()] = -this.mBoardStride;
+		this.mDirectionDeltas[Direction.SOUTH.ordinal()] = this.mBoardStride;
+		this.mDirectionDeltas[Direction.EAST.ordinal()] = 1;
+		this.mDirectionDeltas[Direction.WEST.ordinal()] = -1;
+		
+		this.mCycleCount = cycleCount;
+		this.mHeads = new int[cycleCount];
+		this.mDirections = new int[cycleCount];
+		Arrays.fill(this.mDirections, Simulation.DIRECTION_NONE);
+		this.mIsAlive = new boolean[cycleCount];
+		this.mTrails = new int[cycleCount][Simulation.TRAIL_INITIAL_CAPACITY];
+		this.mTrailStarts = new int[cycleCount];
+		this.mTrailLengths = new int[cycleCount];
+		this.mPeriods = new int[cycleCount];
+		Arrays.fill(this.mPeriods, Simulation.TIME_PER_TICK);
+		this.mScheduler = new CycleScheduler(cycleCount);
+		this.mWantsToGo = Simulation.DIRECTION_NONE;
+		this.mAis = new int[cycleCount];
+		this.mStrategies = new Strategy[Simulation.AI_COUNT];
+		this.mAiBudget = Simulation.DEFAULT_AI_BUDGET;
+	}
+	
+	
+	
+	/**
+	 * Get the layout the board is built from.
+	 * 
+	 * @return Layout.
+	 */
+	public Layout getLayout() {
+		return this.mLayout;
+	}
+	
+	/**
+	 * Get the seed of the random number generator. A simulation created
+	 * with the same layout and seed will play out identically.
+	 * 
+	 * @return Seed.
+	 */
+	public long getSeed() {
+		return this.mRandom.getSeed();
+	}
+	
+	/**
+	 * Get the number of ticks since the board was created.
+	 * 
+	 * @return Tick count.
+	 */
+	public long getTicks() {
+		return this.mTicks;
+	}
+	
+	/**
+	 * Set whether or not the state checksum is updated every tick. Enabling
+	 * resets the checksum.
+	 * 
+	 * @param isChecksumming Boolean.
+	 */
+	public void setIsChecksumming(final boolean isChecksumming) {
+		this.mIsChecksumming = isChecksumming;
+		this.mChecksum = Simulation.CHECKSUM_BASIS;
+	}
+	
+	/**
+	 * Get the rolling checksum of every cell claimed and round reset since
+	 * checksumming was enabled or the board was created. Two simulations
+	 * which have behaved identically will have the same checksum.
+	 * 
+	 * @return Checksum.
+	 */
+	public long getChecksum() {
+		return this.mChecksum;
+	}
+	
+	/**
+	 * Fold a value into the state checksum.
+	 * 
+	 * @param value Value.
+	 */
+	private void checksum(final int value) {
+		this.mChecksum = (this.mChecksum ^ value) * Simulation.CHECKSUM_PRIME;
+	}
+	
+	/**
+	 * Get the number of cells on the board horizontally.
+	 * 
+	 * @return Cell count.
+	 */
+	public int getCellsWide() {
+		return this.mCellsWide;
+	}
+	
+	/**
+	 * Get the number of cells on the board vertically.
+	 * 
+	 * @return Cell count.
+	 */
+	public int getCellsTall() {
+		return this.mCellsTall;
+	}
+	
+	/**
+	 * Get the number of light cycles on the board.
+	 * 
+	 * @return Cycle count.
+	 */
+	public int getCycleCount() {
+		return this.mCycleCount;
+	}
+	
+	/**
+	 * Get whether or not a cycle is still riding in the current round.
+	 * 
+	 * @param cycle Cycle number.
+	 * @return Boolean.
+	 */
+	public boolean isAlive(final int cycle) {
+		return this.mIsAlive[cycle];
+	}
+	
+	/**
+	 * Get the board index of the head of a cycle.
+	 * 
+	 * @param cycle Cycle number.
+	 * @return Board index.
+	 */
+	public int getHead(final int cycle) {
+		return this.mHeads[cycle];
+	}
+	
+	/**
+	 * Get the direction a cycle last moved in.
+	 * 
+	 * @param cycle Cycle number.
+	 * @return Direction or <code>null</code> if it has not moved yet.
+	 */
+	public Direction getDirection(final int cycle) {
+		final int direction = this.mDirections[cycle];
+		return (direction == Simulation.DIRECTION_NONE) ? null : Simulation.DIRECTIONS[direction];
+	}
+	
+	/**
+	 * Get the speed of a cycle.
+	 * 
+	 * @param cycle Cycle number.
+	 * @return Cells moved per tick.
+	 */
+	public float getSpeed(final int cycle) {
+		return Simulation.TIME_PER_TICK / (float)this.mPeriods[cycle];
+	}
+	
+	/**
+	 * Set the speed of a cycle. Takes effect after its next move.
+	 * 
+	 * @param cycle Cycle number.
+	 * @param speed Cells moved per tick, greater than zero and at most {@link #MAX_SPEED}.
+	 */
+	public void setSpeed(final int cycle, final float speed) {
+		if ((speed <= 0) || (speed > Simulation.MAX_SPEED)) {
+			throw new IllegalArgumentException("Speed must be greater than zero and at most " + Simulation.MAX_SPEED + ".");
+		}
+		final int period = Math.round(Simulation.TIME_PER_TICK / speed);
+		if (period != this.mPeriods[cycle]) {
+			//Timing no longer matches what the recording started with
+			this.mIsRecordingRound = false;
+		}
+		this.mPeriods[cycle] = period;
+	}
+	
+	/**
+	 * Get the AI driving a cycle.
+	 * 
+	 * @param cycle Cycle number.
+	 * @return AI.
+	 */
+	public int getAi(final int cycle) {
+		return this.mAis[cycle];
+	}
+	
+	/**
+	 * Set the AI driving a cycle whenever the user is not steering it.
+	 * Takes effect on its next move.
+	 * 
+	 * @param cycle Cycle number.
+	 * @param ai {@link #AI_WANDER}, {@link #AI_TERRITORY}, {@link #AI_MINIMAX} or {@link #AI_MCTS}.
+	 */
+	public void setAi(final int cycle, final int ai) {
+		if ((ai < 0) || (ai >= Simulation.AI_COUNT)) {
+			throw new IllegalArgumentException("AI is invalid.");
+		}
+		
+		this.mAis[cycle] = ai;
+		if (ai != Simulation.AI_WANDER) {
+			this.getStrategy(ai);
+		}
+	}
+	
+	/**
+	 * Get the time searching AIs may think for in a single tick.
+	 * 
+	 * @return Nanoseconds.
+	 */
+	public long getAiBudget() {
+		return this.mAiBudget;
+	}
+	
+	/**
+	 * Set the time searching AIs may think for in a single tick. Each
+	 * decision gets an even share of what is left of the budget when it is
+	 * made, so every searching cycle due in the tick gets to think. A
+	 * decision without time to think falls back to a move which needs no
+	 * search, so a budget of zero never searches.
+	 * 
+	 * @param nanoseconds Nanoseconds.
+	 */
+	public void setAiBudget(final long nanoseconds) {
+		if (nanoseconds < 0) {
+			throw new IllegalArgumentException("AI budget must not be negative.");
+		}
+		this.mAiBudget = nanoseconds;
+	}
+	
+	/**
+	 * Get the number of random games played out by {@link #AI_MCTS}.
+	 * 
+	 * @return Playout count.
+	 */
+	public long getPlayoutCount() {
+		final MctsStrategy strategy = (MctsStrategy)this.mStrategies[Simulation.AI_MCTS];
+		return (strategy == null) ? 0 : strategy.getPlayouts();
+	}
+	
+	/**
+	 * Get the time {@link #AI_MCTS} has spent playing out random games.
+	 * Together with {@link #getPlayoutCount()} it gives the playout rate
+	 * the time budget has to work with.
+	 * 
+	 * @return Nanoseconds.
+	 */
+	public long getPlayoutTime() {
+		final MctsStrategy strategy = (MctsStrategy)this.mStrategies[Simulation.AI_MCTS];
+		return (strategy == null) ? 0 : strategy.getThinkingTime();
+	}
+	
+	/**
+	 * Get the time at which the searching AI deciding right now must stop
+	 * thinking. It is its share of what is left of the tick's budget.
+	 * 
+	 * @return Time as given by {@link System#nanoTime()}.
+	 */
+	/*package*/long getDeadline() {
+		return this.mDeadline;
+	}
+	
+	/**
+	 * Get the number of decisions the territory AI makes in the current
+	 * tick. They share the tick's search evenly, which unlike a deadline
+	 * keeps every decision deterministic.
+	 * 
+	 * @return Decision count. At least one.
+	 */
+	/*package*/int getTerritoryDue() {
+		return Math.max(this.mTerritoryDue, 1);
+	}
+	
+	/**
+	 * Test whether an AI thinks for as long as its deadline allows.
+	 * 
+	 * @param ai AI.
+	 * @return Boolean.
+	 */
+	private static boolean isSearchingAi(final int ai) {
+		return (ai == Simulation.AI_MINIMAX) || (ai == Simulation.AI_MCTS);
+	}
+	
+	/**
+	 * Count the decisions searching AIs and the territory AI make in the
+	 * current tick. Cycles faster than one move per tick decide more than
+	 * once.
+	 */
+	private void countDecisionsDue() {
+		this.mSearchesDue = 0;
+		this.mTerritoryDue = 0;
+		for (int cycle = 0; cycle < this.mCycleCount; cycle++) {
+			if (!this.mIsAlive[cycle]) {
+				continue;
+			}
+			final long dueTime = this.mScheduler.getDueTime(cycle);
+			if (dueTime > this.mTime) {
+				continue;
+			}
+			final int decisions = (int)((this.mTime - dueTime) / this.mPeriods[cycle]) + 1;
+			if (Simulation.isSearchingAi(this.mAis[cycle])) {
+				this.mSearchesDue += decisions;
+			} else if (this.mAis[cycle] == Simulation.AI_TERRITORY) {
+				this.mTerritoryDue += decisions;
+			}
+		}
+	}
+	
+	/**
+	 * Get the strategy of an AI, creating it the first time.
+	 * 
+	 * @param ai AI other than {@link #AI_WANDER}.
+	 * @return Strategy.
+	 */
+	private Strategy getStrategy(final int ai) {
+		if (this.mStrategies[ai] == null) {
+			this.mStrategies[ai] = this.createStrategy(ai);
+		}
+		return this.mStrategies[ai];
+	}
+	
+	/**
+	 * Create the strategy of an AI for this board.
+	 * 
+	 * @param ai AI other than {@link #AI_WANDER}.
+	 * @return Strategy.
+	 */
+	private Strategy createStrategy(final int ai) {
+		switch (ai) {
+			case Simulation.AI_TERRITORY:
+				return new TerritoryStrategy(this);
+			case Simulation.AI_MINIMAX:
+				//Shares the evaluator so its scratch space is only allocated once
+				return new MinimaxStrategy(this, (TerritoryStrategy)this.getStrategy(Simulation.AI_TERRITORY));
+			case Simulation.AI_MCTS:
+				return new MctsStrategy(this);
+			default:
+				throw new IllegalArgumentException("AI has no strategy.");
+		}
+	}
+	
+	/**
+	 * Get the number of cells in the trail of a cycle.
+	 * 
+	 * @param cycle Cycle number.
+	 * @return Cell count.
+	 */
+	public int getTrailLength(final int cycle) {
+		return this.mTrailLengths[cycle];
+	}
+	
+	/**
+	 * Get a cell in the trail of a cycle.
+	 * 
+	 * @param cycle Cycle number.
+	 * @param index Position in the trail where zero is the oldest cell.
+	 * @return Board index.
+	 */
+	public int getTrailCell(final int cycle, final int index) {
+		final int[] trail = this.mTrails[cycle];
+		return trail[(this.mTrailStarts[cycle] + index) & (trail.length - 1)];
+	}
+	
+	/**
+	 * Get the maximum number of cells in a trail.
+	 * 
+	 * @return Cell count, or zero if trails are unbounded.
+	 */
+	public int getMaxTrailLength() {
+		return this.mMaxTrailLength;
+	}
+	
+	/**
+	 * Set the maximum number of cells in a trail. Once a trail is full the
+	 * oldest cell is freed every time the head advances. Trails which are
+	 * already longer are cut down immediately.
+	 * 
+	 * @param maxTrailLength Cell count, or zero for unbounded trails.
+	 */
+	public void setMaxTrailLength(final int maxTrailLength) {
+		if (maxTrailLength < 0) {
+			throw new IllegalArgumentException("Maximum trail length must not be negative.");
+		}
+		
+		if (maxTrailLength != this.mMaxTrailLength) {
+			this.mIsRecordingRound = false;
+		}
+		this.mMaxTrailLength = maxTrailLength;
+		if (maxTrailLength > 0) {
+			boolean isTrimmed = false;
+			for (int cycle = 0; cycle < this.mCycleCount; cycle++) {
+				while (this.mTrailLengths[cycle] > maxTrailLength) {
+					this.expireTail(cycle);
+					isTrimmed = true;
+				}
+			}
+			if (isTrimmed) {
+				this.publishReset();
+			}
+		}
+	}
+	
+	/**
+	 * Get the direction the user wants to travel in.
+	 * 
+	 * @return Direction or <code>null</code>.
+	 */
+	public Direction getWantsToGo() {
+		return (this.mWantsToGo == Simulation.DIRECTION_NONE) ? null : Simulation.DIRECTIONS[this.mWantsToGo];
+	}
+	
+	/**
+	 * Set the user desired direction.
+	 * 
+	 * @param direction
+	 */
+	public void setWantsToGo(final Direction direction) {
+		this.mWantsToGo = (direction == null) ? Simulation.DIRECTION_NONE : direction.ordinal();
+	}
+	
+	/**
+	 * Get the index of a coordinate in the flattened board.
+	 * 
+	 * @param x X coordinate.
+	 * @param y Y coordinate.
+	 * @return Board index.
+	 */
+	public int getCellIndex(final int x, final int y) {
+		return ((y + Simulation.CELLS_BORDER) * this.mBoardStride) + x + Simulation.CELLS_BORDER;
+	}
+	
+	/**
+	 * Get the X coordinate of a board index.
+	 * 
+	 * @param cell Board index.
+	 * @return X coordinate.
+	 */
+	public int getCellX(final int cell) {
+		return (cell % this.mBoardStride) - Simulation.CELLS_BORDER;
+	}
+	
+	/**
+	 * Get the Y coordinate of a board index.
+	 * 
+	 * @param cell Board index.
+	 * @return Y coordinate.
+	 */
+	public int getCellY(final int cell) {
+		return (cell / this.mBoardStride) - Simulation.CELLS_BORDER;
+	}
+	
+	/**
+	 * Get the value of a cell on the board.
+	 * 
+	 * @param cell Board index.
+	 * @return One of the <code>CELL_*</code> constants.
+	 */
+	public byte getCell(final int cell) {
+		return this.mBoard[cell];
+	}
+	
+	/**
+	 * Get the cells of the board for strategies to read. The array is
+	 * replaced whenever the board is, so it must not be held on to.
+	 * 
+	 * @return Flattened cells, including the sentinel wall border.
+	 */
+	/*package*/byte[] getBoard() {
+		return this.mBoard;
+	}
+	
+	/**
+	 * Get the board index offset of a single step.
+	 * 
+	 * @param direction Direction ordinal.
+	 * @return Offset.
+	 */
+	/*package*/int getDirectionDelta(final int direction) {
+		return this.mDirectionDeltas[direction];
+	}
+	
+	/**
+	 * Get the direction ordinal of a cycle.
+	 * 
+	 * @param cycle Cycle number.
+	 * @return Direction ordinal, or -1 if it has not moved yet.
+	 */
+	/*package*/int getDirectionOrdinal(final int cycle) {
+		return this.mDirections[cycle];
+	}
+	
+	/**
+	 * Find the riding cycle closest to another, for strategies which only
+	 * look ahead against a single rival.
+	 * 
+	 * @param cycle Cycle number.
+	 * @return Cycle number, or -1 if no other cycle is riding.
+	 */
+	/*package*/int findRival(final int cycle) {
+		final int x = this.getCellX(this.mHeads[cycle]);
+		final int y = this.getCellY(this.mHeads[cycle]);
+		
+		int rival = -1;
+		int closest = Integer.MAX_VALUE;
+		for (int other = 0; other < this.mCycleCount; other++) {
+			if ((other == cycle) || !this.mIsAlive[other]) {
+				continue;
+			}
+			final int distance = Math.abs(this.getCellX(this.mHeads[other]) - x) + Math.abs(this.getCellY(this.mHeads[other]) - y);
+			if (distance < closest) {
+				rival = other;
+				closest = distance;
+			}
+		}
+		return rival;
+	}
+	
+	/**
+	 * Choose a move for a cycle without searching, for strategies which ran
+	 * out of time: straight if possible, otherwise the turn with the most
+	 * room after it.
+	 * 
+	 * @param cycle Cycle number.
+	 * @return Direction ordinal.
+	 */
+	/*package*/int chooseFallbackDirection(final int cycle) {
+		final int head = this.mHeads[cycle];
+		final int current = this.mDirections[cycle];
+		if ((current != Simulation.DIRECTION_NONE) && !this.isCollision(head + this.mDirectionDeltas[current])) {
+			return current;
+		}
+		
+		int best = (current != Simulation.DIRECTION_NONE) ? current : Direction.NORTH.ordinal();
+		int bestRoom = -1;
+		for (int direction = 0; direction < Simulation.DIRECTIONS.length; direction++) {
+			final int next = head + this.mDirectionDeltas[direction];
+			if (this.isCollision(next)) {
+				continue;
+			}
+			final int room = Integer.bitCount(this.getLegalDirections(next));
+			if (room > bestRoom) {
+				best = direction;
+				bestRoom = room;
+			}
+		}
+		return best;
+	}
+	
+	/**
+	 * Test if a cell is a valid coordinate on the game board.
+	 * 
+	 * The board is surrounded by a sentinel wall border so any cell at most
+	 * one step off of the board does not need to be bounds checked.
+	 * 
+	 * @param cell Board index.
+	 * @return Boolean indicating whether or not the position is valid.
+	 */
+	private boolean isValidPosition(final int cell) {
+		return (this.mBoard[cell] == Simulation.CELL_BLANK);
+	}
+	
+	/**
+	 * Get the history the most recent moves are recorded in.
+	 * 
+	 * @return History, or <code>null</code> if moves are not recorded.
+	 */
+	public Rewind getRewind() {
+		return this.mRewind;
+	}
+	
+	/**
+	 * Record the most recent moves in a history. It is cleared whenever a
+	 * new round starts.
+	 * 
+	 * @param rewind History with the same cycle count, or <code>null</code> to stop recording.
+	 */
+	public void setRewind(final Rewind rewind) {
+		if ((rewind != null) && (rewind.getCycleCount() != this.mCycleCount)) {
+			throw new IllegalArgumentException("Rewind must have the same cycle count.");
+		}
+		
+		this.mRewind = rewind;
+		if (rewind != null) {
+			rewind.clear();
+		}
+	}
+	
+	/**
+	 * Get whether or not a round which ends is left on the board until {@link #newGame()}.
+	 * 
+	 * @return Boolean.
+	 */
+	public boolean isHoldingRounds() {
+		return this.mIsHoldingRounds;
+	}
+	
+	/**
+	 * Set whether or not a round which ends is left on the board, with its
+	 * history, until {@link #newGame()} is called. Ticks do nothing in the
+	 * meantime.
+	 * 
+	 * @param isHoldingRounds Boolean.
+	 */
+	public void setIsHoldingRounds(final boolean isHoldingRounds) {
+		this.mIsHoldingRounds = isHoldingRounds;
+	}
+	
+	/**
+	 * Get whether or not the round on the board has ended and is being held.
+	 * 
+	 * @return Boolean.
+	 */
+	public boolean isRoundOver() {
+		return (this.mAliveCount <= 1);
+	}
+	
+	/**
+	 * Get the changes published by the most recent tick.
+	 * 
+	 * @return Events, or <code>null</code> if they are not published.
+	 */
+	public TickEvents getEvents() {
+		return this.mEvents;
+	}
+	
+	/**
+	 * Publish what changes on every tick. The events start with a
+	 * {@link TickEvents#RESET} so consumers build from the current state.
+	 * 
+	 * @param events Storage with the same cycle count, or <code>null</code> to stop publishing.
+	 */
+	public void setEvents(final TickEvents events) {
+		if ((events != null) && (events.getCycleCount() != this.mCycleCount)) {
+			throw new IllegalArgumentException("Events must have the same cycle count.");
+		}
+		
+		this.mEvents = events;
+		this.publishReset();
+	}
+	
+	/**
+	 * Start a batch of events for a change made outside of a tick, which
+	 * consumers must rebuild from the simulation's state for.
+	 */
+	private void publishReset() {
+		if (this.mEvents != null) {
+			this.mEvents.begin();
+			this.mEvents.add(TickEvents.RESET, -1, -1, Simulation.DIRECTION_NONE);
+		}
+	}
+	
+	/**
+	 * Get whether or not every round is recorded.
+	 * 
+	 * @return Boolean.
+	 */
+	public boolean isRecording() {
+		return (this.mRecording != null);
+	}
+	
+	/**
+	 * Set whether or not every round is recorded, starting with the next
+	 * one. Rounds whose speeds, trail length or layout change part way are
+	 * not kept.
+	 * 
+	 * @param isRecording Boolean.
+	 */
+	public void setIsRecording(final boolean isRecording) {
+		if (isRecording == this.isRecording()) {
+			return;
+		}
+		
+		if (isRecording) {
+			this.mRecording = new Recording(this.mCycleCount);
+			this.mLastRecording = new Recording(this.mCycleCount);
+		} else {
+			this.mRecording = null;
+			this.mLastRecording = null;
+		}
+		this.mIsRecordingRound = false;
+	}
+	
+	/**
+	 * Get the most recent round which was recorded whole. It is reused once
+	 * the next round ends so it must be written out before then.
+	 * 
+	 * @return Recording, or <code>null</code> if no round has been recorded.
+	 */
+	public Recording getLastRecording() {
+		if ((this.mLastRecording == null) || !this.mLastRecording.isComplete()) {
+			return null;
+		}
+		return this.mLastRecording;
+	}
+	
+	/**
+	 * Get whether or not a recording is being played back.
+	 * 
+	 * @return Boolean.
+	 */
+	public boolean isPlaying() {
+		return (this.mPlayback != null);
+	}
+	
+	/**
+	 * Replace the board with the start of a recorded round and play its
+	 * turns back on every following {@link #tick()}. The speeds and trail
+	 * length it was recorded with are applied and must not be changed until
+	 * it ends. Playback stops once the round ends or {@link #newGame()} is
+	 * called.
+	 * 
+	 * The board is rebuilt in the spare buffers, so this must not run at the
+	 * same time as {@link #prepareBoard()} on another thread.
+	 * 
+	 * @param recording Complete recording of the same layout and cycle count.
+	 */
+	public void play(final Recording recording) {
+		if (!recording.isComplete() || (recording.getCycleCount() != this.mCycleCount) || !recording.getLayout().equals(this.mLayout)) {
+			throw new IllegalArgumentException("Recording must be complete and have the same layout and cycle count.");
+		}
+		//Checked against the blank board before anything changes so a bad recording leaves the round alone
+		final byte[] blank = this.mTemplate.cells;
+		for (int cycle = 0; cycle < this.mCycleCount; cycle++) {
+			if (recording.getPeriod(cycle) < Simulation.MIN_PERIOD) {
+				throw new IllegalArgumentException("Recording speed is faster than " + Simulation.MAX_SPEED + ".");
+			}
+			final int start = recording.getStart(cycle);
+			if ((start < 0) || (start >= blank.length) || (blank[start] != Simulation.CELL_BLANK)) {
+				throw new IllegalArgumentException("Recording does not fit the board.");
+			}
+			for (int other = 0; other < cycle; other++) {
+				if (recording.getStart(other) == start) {
+					throw new IllegalArgumentException("Recording starts two cycles on the same cell.");
+				}
+			}
+		}
+		
+		this.prepareBoard();
+		this.swapBuffers();
+		this.mTicks = 0;
+		this.mTime = 0;
+		this.mChecksum = Simulation.CHECKSUM_BASIS;
+		this.publishReset();
+		this.mRandom.setState(recording.getSeed());
+		this.mMaxTrailLength = recording.getMaxTrailLength();
+		if (this.mRewind != null) {
+			this.mRewind.clear();
+		}
+		
+		this.mScheduler.clear();
+		for (int cycle = 0; cycle < this.mCycleCount; cycle++) {
+			this.mPeriods[cycle] = recording.getPeriod(cycle);
+			this.startCycle(cycle, recording.getStart(cycle));
+		}
+		this.mAliveCount = this.mCycleCount;
+		this.mWantsToGo = Simulation.DIRECTION_NONE;
+		
+		this.mIsRecordingRound = false;
+		this.mPlayback = recording;
+		this.mPlaybackTurn = 0;
+	}
+	
+	/**
+	 * Reset the board and game state to that of first initialization.
+	 */
+	public void newBoard() {
+		this.prepareBoard();
+		this.swapBoard();
+	}
+	
+	/**
+	 * Fill the spare board with a blank board for this layout. Only touches
+	 * the spare buffers so it may run on another thread while the current
+	 * board keeps ticking, but not at the same time as {@link #swapBoard()},
+	 * {@link #readSnapshot(DataInput)} or {@link #play(Recording)}.
+	 */
+	public void prepareBoard() {
+		final BoardTemplates.Template template = this.mTemplate;
+		System.arraycopy(template.cells, 0, this.mSpareBoard, 0, this.mSpareBoard.length);
+		System.arraycopy(template.freeCells, 0, this.mSpareFreeCells, 0, template.freeCells.length);
+		
+		//Positions are rebuilt rather than cached with the template to halve its size on dense boards
+		Arrays.fill(this.mSpareFreePositions, -1);
+		for (int i = 0; i < template.freeCells.length; i++) {
+			this.mSpareFreePositions[template.freeCells[i]] = i;
+		}
+		this.mSpareFreeCount = template.freeCells.length;
+		this.mSpareTemplate = template;
+	}
+	
+	/**
+	 * Swap in the board filled by {@link #prepareBoard()} and start the first
+	 * round on it. The replaced board becomes the spare.
+	 */
+	public void swapBoard() {
+		this.swapBuffers();
+		this.mTicks = 0;
+		this.mTime = 0;
+		this.mChecksum = Simulation.CHECKSUM_BASIS;
+		
+		//Initialize game
+		this.newGame();
+	}
+	
+	/**
+	 * Swap in the blank board filled by {@link #prepareBoard()}, without any
+	 * trails. The replaced board becomes the spare.
+	 */
+	private void swapBuffers() {
+		if (this.mSpareTemplate != this.mTemplate) {
+			//The layout was patched after the spare board was filled
+			this.prepareBoard();
+		}
+		
+		final byte[] board = this.mBoard;
+		this.mBoard = this.mSpareBoard;
+		this.mSpareBoard = board;
+		final int[] freeCells = this.mFreeCells;
+		this.mFreeCells = this.mSpareFreeCells;
+		this.mSpareFreeCells = freeCells;
+		final int[] freePositions = this.mFreePositions;
+		this.mFreePositions = this.mSpareFreePositions;
+		this.mSpareFreePositions = freePositions;
+		this.mFreeCount = this.mSpareFreeCount;
+		
+		//Trails are discarded along with the board they were recorded on
+		for (int cycle = 0; cycle < this.mCycleCount; cycle++) {
+			this.mTrailStarts[cycle] = 0;
+			this.mTrailLengths[cycle] = 0;
+		}
+	}
+	
+	/**
+	 * Write the state of the round in progress. Trails are stored as their
+	 * oldest cell followed by two bits per move, so a snapshot is a small
+	 * fraction of the size of the board.
+	 * 
+	 * The board itself is not written. It is rebuilt from the layout, which
+	 * the caller is responsible for matching up on restore.
+	 * 
+	 * @param out Output.
+	 * @throws IOException if the output could not be written.
+	 */
+	public void writeSnapshot(final DataOutput out) throws IOException {
+		out.writeLong(this.mRandom.getState());
+		out.writeLong(this.mTicks);
+		out.writeLong(this.mTime);
+		out.writeLong(this.mChecksum);
+		out.writeByte(this.mWantsToGo);
+		
+		for (int cycle = 0; cycle < this.mCycleCount; cycle++) {
+			out.writeBoolean(this.mIsAlive[cycle]);
+			out.writeByte(this.mDirections[cycle]);
+			out.writeLong(this.mIsAlive[cycle] ? this.mScheduler.getDueTime(cycle) : 0);
+			
+			final int length = this.mTrailLengths[cycle];
+			out.writeInt(length);
+			if (length == 0) {
+				continue;
+			}
+			
+			int previous = this.getTrailCell(cycle, 0);
+			out.writeInt(previous);
+			int packed = 0;
+			for (int i = 1; i < length; i++) {
+				final int cell = this.getTrailCell(cycle, i);
+				packed |= this.getStep(cell - previous) << (((i - 1) & 3) << 1);
+				if (((i - 1) & 3) == 3) {
+					out.writeByte(packed);
+					packed = 0;
+				}
+				previous = cell;
+			}
+			if (((length - 1) & 3) != 0) {
+				out.writeByte(packed);
+			}
+		}
+	}
+	
+	/**
+	 * Replace the board and round in progress with a snapshot written by
+	 * {@link #writeSnapshot(DataOutput)} from a simulation of the same layout
+	 * and cycle count. Trails longer than the current maximum are trimmed.
+	 * 
+	 * If the snapshot is rejected the board is left partially restored and
+	 * must be reset with {@link #newBoard()}.
+	 * 
+	 * The board is rebuilt in the spare buffers, so this must not run at the
+	 * same time as {@link #prepareBoard()} on another thread.
+	 * 
+	 * @param in Input.
+	 * @throws IOException if the input could not be read or does not fit the board.
+	 */
+	public void readSnapshot(final DataInput in) throws IOException {
+		this.prepareBoard();
+		this.swapBuffers();
+		
+		this.mRandom.setState(in.readLong());
+		this.mTicks = in.readLong();
+		this.mTime = in.readLong();
+		this.mChecksum = in.readLong();
+		this.mWantsToGo = Simulation.readDirection(in);
+		
+		this.mScheduler.clear();
+		this.mAliveCount = 0;
+		for (int cycle = 0; cycle < this.mCycleCount; cycle++) {
+			this.mIsAlive[cycle] = in.readBoolean();
+			this.mDirections[cycle] = Simulation.readDirection(in);
+			final long dueTime = in.readLong();
+			if (this.mIsAlive[cycle]) {
+				this.mScheduler.schedule(cycle, dueTime);
+				this.mAliveCount += 1;
+			}
+			
+			final int length = in.readInt();
+			if (length < 0) {
+				throw new IOException("Snapshot trail length is negative.");
+			}
+			if ((length == 0) && this.mIsAlive[cycle]) {
+				//A riding cycle's head is the end of its trail
+				throw new IOException("Snapshot cycle is riding without a trail.");
+			}
+			if (length == 0) {
+				continue;
+			}
+			
+			int cell = in.readInt();
+			this.restoreCell(cycle, cell);
+			int packed = 0;
+			for (int i = 1; i < length; i++) {
+				if (((i - 1) & 3) == 0) {
+					packed = in.readUnsignedByte();
+				}
+				cell += this.mDirectionDeltas[(packed >> (((i - 1) & 3) << 1)) & 3];
+				this.restoreCell(cycle, cell);
+			}
+			
+			while ((this.mMaxTrailLength > 0) && (this.mTrailLengths[cycle] > this.mMaxTrailLength)) {
+				this.expireTail(cycle);
+			}
+		}
+		
+		if (this.mAliveCount <= 1) {
+			throw new IOException("Snapshot has no round in progress.");
+		}
+		if (this.mRewind != null) {
+			this.mRewind.clear();
+		}
+		
+		//The start of the round is not in the snapshot
+		this.mIsRecordingRound = false;
+		this.mPlayback = null;
+		this.publishReset();
+	}
+	
+	/**
+	 * Get the direction ordinal of a single move.
+	 * 
+	 * @param delta Board index offset of the move.
+	 * @return Direction ordinal.
+	 */
+	private int getStep(final int delta) {
+		for (int direction = 0; direction < this.mDirectionDeltas.length; direction++) {
+			if (this.mDirectionDeltas[direction] == delta) {
+				return direction;
+			}
+		}
+		throw new IllegalStateException("Trail cells are not adjacent.");
+	}
+	
+	/**
+	 * Read a direction ordinal.
+	 * 
+	 * @param in Input.
+	 * @return Direction ordinal, or {@link #DIRECTION_NONE}.
+	 * @throws IOException if the input could not be read or is not a direction.
+	 */
+	private static int readDirection(final DataInput in) throws IOException {
+		final int direction = in.readByte();
+		if ((direction < Simulation.DIRECTION_NONE) || (direction >= Simulation.DIRECTIONS.length)) {
+			throw new IOException("Snapshot direction is invalid.");
+		}
+		return direction;
+	}
+	
+	/**
+	 * Add a cell from a snapshot to the end of a trail.
+	 * 
+	 * @param cycle Cycle number.
+	 * @param cell Board index.
+	 * @throws IOException if the cell is not blank.
+	 */
+	private void restoreCell(final int cycle, final int cell) throws IOException {
+		if ((cell < 0) || (cell >= this.mBoard.length) || !this.isValidPosition(cell)) {
+			throw new IOException("Snapshot trail does not fit the board.");
+		}
+		this.appendTrail(cycle, cell);
+	}
+	
+	/**
+	 * Test whether the board can be patched in place to another layout. Only
+	 * the widgets may differ.
+	 * 
+	 * @param layout Layout.
+	 * @return Boolean.
+	 */
+	public boolean isPatchable(final Layout layout) {
+		return (layout.getIconRows() == this.mLayout.getIconRows())
+				&& (layout.getIconCols() == this.mLayout.getIconCols())
+				&& (layout.getCellRowSpacing() == this.mLayout.getCellRowSpacing())
+				&& (layout.getCellColumnSpacing() == this.mLayout.getCellColumnSpacing())
+				&& (layout.getResolution() == this.mLayout.getResolution())
+				&& (layout.hasTrailingColumnGap() == this.mLayout.hasTrailingColumnGap())
+				&& (layout.hasTrailingRowGap() == this.mLayout.hasTrailingRowGap());
+	}
+	
+	/**
+	 * Change the layout without ending the round. Only the cells under
+	 * widgets which were added or removed are touched: new walls are claimed
+	 * and old walls are released. A cycle whose trail now sits inside a new
+	 * wall loses its trail and, if it is still riding, restarts from a random
+	 * blank cell. Every other cycle keeps going.
+	 * 
+	 * @param layout Layout which differs only in its widgets.
+	 */
+	public void patchLayout(final Layout layout) {
+		if (!this.isPatchable(layout)) {
+			throw new IllegalArgumentException("Layout must only differ in its widgets.");
+		}
+		
+		final List<Layout.Widget> removed = new ArrayList<Layout.Widget>(this.mLayout.getWidgets());
+		removed.removeAll(layout.getWidgets());
+		final List<Layout.Widget> added = new ArrayList<Layout.Widget>(layout.getWidgets());
+		added.removeAll(this.mLayout.getWidgets());
+		
+		final List<Layout.Widget> changed = new ArrayList<Layout.Widget>(removed);
+		changed.addAll(added);
+		final byte[] cells = BoardTemplates.get(layout).cells;
+		
+		//Find the cycles with a trail under a new wall and clear them off the board
+		int isReset = 0;
+		for (final Layout.Widget widget : added) {
+			isReset |= this.findTrails(widget, cells);
+		}
+		for (int cycle = 0; cycle < this.mCycleCount; cycle++) {
+			if ((isReset & (1 << cycle)) != 0) {
+				while (this.mTrailLengths[cycle] > 0) {
+					this.expireTail(cycle);
+				}
+			}
+		}
+		if ((isReset != 0) && (this.mRewind != null)) {
+			//History no longer lines up with the trails
+			this.mRewind.clear();
+		}
+		
+		//Bring the walls in line with the new template
+		for (final Layout.Widget widget : changed) {
+			this.patchCells(widget, cells);
+		}
+		
+		this.mLayout = layout;
+		this.mTemplate = BoardTemplates.get(layout);
+		
+		if (this.mIsChecksumming) {
+			this.checksum(Simulation.CHECKSUM_PATCH);
+		}
+		this.mIsRecordingRound = false;
+		this.mPlayback = null;
+		this.publishReset();
+		
+		//Restart cleared cycles which are still riding
+		for (int cycle = 0; cycle < this.mCycleCount; cycle++) {
+			if (((isReset & (1 << cycle)) != 0) && this.mIsAlive[cycle]) {
+				this.mDirections[cycle] = Simulation.DIRECTION_NONE;
+				this.advanceCycle(cycle, this.getRandomValidPosition());
+			}
+		}
+	}
+	
+	/**
+	 * Find the cycles which have a trail cell under a widget that is a wall
+	 * on the new board.
+	 * 
+	 * @param widget Widget.
+	 * @param cells Blank board of the new layout.
+	 * @return Bit mask of cycle numbers.
+	 */
+	private int findTrails(final Layout.Widget widget, final byte[] cells) {
+		final int iconCellsWidth = this.mLayout.getIconCellsWidth();
+		final int iconCellsHeight = this.mLayout.getIconCellsHeight();
+		final int left = (widget.left * iconCellsWidth) + this.mLayout.getCellsBetweenColumn();
+		final int top = (widget.top * iconCellsHeight) + this.mLayout.getCellsBetweenRow();
+		final int right = (widget.right * iconCellsWidth) + iconCellsWidth - 1;
+		final int bottom = (widget.bottom * iconCellsHeight) + iconCellsHeight - 1;
+		
+		int cycles = 0;
+		for (int y = top; y <= bottom; y++) {
+			final int offset = this.getCellIndex(0, y);
+			for (int x = left; x <= right; x++) {
+				final int cell = offset + x;
+				if ((this.mBoard[cell] >= Simulation.CELL_CYCLE) && (cells[cell] == Simulation.CELL_WALL)) {
+					cycles |= 1 << (this.mBoard[cell] - Simulation.CELL_CYCLE);
+				}
+			}
+		}
+		return cycles;
+	}
+	
+	/**
+	 * Claim or release the walls under a widget to match the new board.
+	 * Trail cells are left alone.
+	 * 
+	 * @param widget Widget.
+	 * @param cells Blank board of the new layout.
+	 */
+	private void patchCells(final Layout.Widget widget, final byte[] cells) {
+		final int iconCellsWidth = this.mLayout.getIconCellsWidth();
+		final int iconCellsHeight = this.mLayout.getIconCellsHeight();
+		final int left = (widget.left * iconCellsWidth) + this.mLayout.getCellsBetweenColumn();
+		final int top = (widget.top * iconCellsHeight) + this.mLayout.getCellsBetweenRow();
+		final int right = (widget.right * iconCellsWidth) + iconCellsWidth - 1;
+		final int bottom = (widget.bottom * iconCellsHeight) + iconCellsHeight - 1;
+		
+		for (int y = top; y <= bottom; y++) {
+			final int offset = this.getCellIndex(0, y);
+			for (int x = left; x <= right; x++) {
+				final int cell = offset + x;
+				if ((cells[cell] == Simulation.CELL_WALL) && (this.mBoard[cell] == Simulation.CELL_BLANK)) {
+					this.claim(cell, Simulation.CELL_WALL);
+				} else if ((cells[cell] == Simulation.CELL_BLANK) && (this.mBoard[cell] == Simulation.CELL_WALL)) {
+					this.release(cell);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Reset players.
+	 */
+	public void newGame() {
+		if (this.mEvents != null) {
+			this.mEvents.begin();
+		}
+		this.startRound();
+	}
+	
+	/**
+	 * Clear the trails of the previous round and put every cycle on a
+	 * random starting cell.
+	 */
+	private void startRound() {
+		//Release the cells of the previous round
+		for (int cycle = 0; cycle < this.mCycleCount; cycle++) {
+			while (this.mTrailLengths[cycle] > 0) {
+				this.expireTail(cycle);
+			}
+		}
+		
+		if (this.mIsChecksumming) {
+			this.checksum(Simulation.CHECKSUM_NEW_GAME);
+		}
+		if (this.mEvents != null) {
+			this.mEvents.add(TickEvents.RESET, -1, -1, Simulation.DIRECTION_NONE);
+		}
+		if (this.mRewind != null) {
+			this.mRewind.clear();
+		}
+		
+		this.mPlayback = null;
+		this.mIsRecordingRound = (this.mRecording != null);
+		if (this.mIsRecordingRound) {
+			this.mRecording.begin(this.mLayout, this.mMaxTrailLength, this.mPeriods, this.mRandom.getState(), this.mTicks);
+		}
+		
+		//Get starting position for every cycle and schedule its first move
+		this.mScheduler.clear();
+		for (int cycle = 0; cycle < this.mCycleCount; cycle++) {
+			final int start = this.getRandomValidPosition();
+			this.startCycle(cycle, start);
+			if (this.mIsRecordingRound) {
+				this.mRecording.setStart(cycle, start);
+			}
+		}
+		this.mAliveCount = this.mCycleCount;
+		
+		//No user direction
+		this.mWantsToGo = Simulation.DIRECTION_NONE;
+	}
+	
+	/**
+	 * Put a cycle on its starting cell and schedule its first move.
+	 * 
+	 * @param cycle Cycle number.
+	 * @param cell Board index.
+	 */
+	private void startCycle(final int cycle, final int cell) {
+		this.mIsAlive[cycle] = true;
+		this.advanceCycle(cycle, cell);
+		this.mScheduler.schedule(cycle, this.mTime + this.mPeriods[cycle]);
+	}
+	
+	/**
+	 * Move the head of a cycle to a blank cell and record it in the trail.
+	 * 
+	 * @param cycle Cycle number.
+	 * @param cell Board index.
+	 */
+	private void advanceCycle(final int cycle, final int cell) {
+		if ((this.mMaxTrailLength > 0) && (this.mTrailLengths[cycle] == this.mMaxTrailLength)) {
+			if (this.mEvents != null) {
+				this.mEvents.add(TickEvents.RELEASE, cycle, this.getTrailCell(cycle, 0), this.mDirections[cycle]);
+			}
+			this.expireTail(cycle);
+		}
+		
+		this.appendTrail(cycle, cell);
+		if (this.mEvents != null) {
+			this.mEvents.add(TickEvents.CLAIM, cycle, cell, this.mDirections[cycle]);
+		}
+		
+		if (this.mIsChecksumming) {
+			this.checksum(cell);
+		}
+	}
+	
+	/**
+	 * Claim a blank cell for a cycle and record it as the head of its trail.
+	 * 
+	 * @param cycle Cycle number.
+	 * @param cell Board index.
+	 */
+	private void appendTrail(final int cycle, final int cell) {
+		int[] trail = this.mTrails[cycle];
+		final int start = this.mTrailStarts[cycle];
+		final int length = this.mTrailLengths[cycle];
+		if (length == trail.length) {
+			//Unwrap into a buffer twice the size
+			trail = new int[trail.length * 2];
+			final int[] old = this.mTrails[cycle];
+			System.arraycopy(old, start, trail, 0, old.length - start);
+			System.arraycopy(old, 0, trail, old.length - start, start);
+			this.mTrails[cycle] = trail;
+			this.mTrailStarts[cycle] = 0;
+		}
+		trail[(this.mTrailStarts[cycle] + length) & (trail.length - 1)] = cell;
+		this.mTrailLengths[cycle] = length + 1;
+		this.mHeads[cycle] = cell;
+		this.claim(cell, (byte)(Simulation.CELL_CYCLE + cycle));
+	}
+	
+	/**
+	 * Free the oldest cell of a trail.
+	 * 
+	 * @param cycle Cycle number.
+	 */
+	private void expireTail(final int cycle) {
+		final int[] trail = this.mTrails[cycle];
+		final int start = this.mTrailStarts[cycle];
+		this.release(trail[start]);
+		this.mTrailStarts[cycle] = (start + 1) & (trail.length - 1);
+		this.mTrailLengths[cycle] -= 1;
+	}
+	
+	/**
+	 * Get a random valid position on the board.
+	 * 
+	 * @return Board index.
+	 */
+	private int getRandomValidPosition() {
+		if (this.mFreeCount == 0) {
+			throw new IllegalStateException("Board has no blank cells.");
+		}
+		return this.mFreeCells[this.mRandom.nextInt(this.mFreeCount)];
+	}
+	
+	/**
+	 * Mark a blank cell as occupied and remove it from the free cell index.
+	 * 
+	 * @param cell Board index.
+	 * @param owner Cell value of the occupant.
+	 */
+	private void claim(final int cell, final byte owner) {
+		this.mBoard[cell] = owner;
+		
+		//Move the last free cell into the claimed cell's slot
+		final int position = this.mFreePositions[cell];
+		final int last = this.mFreeCells[--this.mFreeCount];
+		this.mFreeCells[position] = last;
+		this.mFreePositions[last] = position;
+		this.mFreePositions[cell] = -1;
+	}
+	
+	/**
+	 * Mark an occupied cell as blank and add it to the free cell index.
+	 * 
+	 * @param cell Board index.
+	 */
+	private void release(final int cell) {
+		this.mBoard[cell] = Simulation.CELL_BLANK;
+		this.mFreeCells[this.mFreeCount] = cell;
+		this.mFreePositions[cell] = this.mFreeCount;
+		this.mFreeCount += 1;
+	}
+	
+	/**
+	 * Get the number of blank cells on the board.
+	 * 
+	 * @return Cell count.
+	 */
+	public int getFreeCount() {
+		return this.mFreeCount;
+	}
+	
+	/**
+	 * Advance time by one tick and move every cycle which is due. Cycles
+	 * faster than normal speed may move more than once and slower cycles
+	 * may not move at all. Cycles due at the same time move in cycle order.
+	 * 
+	 * A cycle which crashes is out for the rest of the round and its trail
+	 * stays on the board. The round ends once a single cycle is left.
+	 * 
+	 * @return Whether or not the round ended. A new one is started unless rounds are being held.
+	 */
+	public boolean tick() {
+		if (this.mEvents != null) {
+			this.mEvents.begin();
+		}
+		if (this.mAliveCount <= 1) {
+			//Round is being held
+			return false;
+		}
+		
+		this.mTicks += 1;
+		this.mTime += Simulation.TIME_PER_TICK;
+		if ((this.mStrategies[Simulation.AI_TERRITORY] != null) || (this.mStrategies[Simulation.AI_MINIMAX] != null) || (this.mStrategies[Simulation.AI_MCTS] != null)) {
+			this.mTickDeadline = System.nanoTime() + this.mAiBudget;
+			this.countDecisionsDue();
+		}
+		if (this.mRewind != null) {
+			this.mRewind.beginTick();
+		}
+		
+		while (!this.mScheduler.isEmpty() && (this.mScheduler.peekDueTime() <= this.mTime)) {
+			final long dueTime = this.mScheduler.peekDueTime();
+			final int cycle = this.mScheduler.poll();
+			
+			final int previousDirection = this.mDirections[cycle];
+			if (this.mPlayback != null) {
+				this.playNextDirection(cycle);
+			} else {
+				this.determineNextDirection(cycle);
+			}
+			if (this.mIsRecordingRound) {
+				this.mRecording.recordTurn(this.mDirections[cycle]);
+			}
+			if ((this.mEvents != null) && (this.mDirections[cycle] != previousDirection)) {
+				this.mEvents.add(TickEvents.TURN, cycle, -1, this.mDirections[cycle]);
+			}
+			
+			final int newCell = this.move(this.mHeads[cycle], this.mDirections[cycle]);
+			if (this.isCollision(newCell)) {
+				this.mIsAlive[cycle] = false;
+				this.mAliveCount -= 1;
+				if (this.mEvents != null) {
+					this.mEvents.add(TickEvents.CRASH, cycle, newCell, this.mDirections[cycle]);
+				}
+				if (this.mAliveCount <= 1) {
+					this.endRecording();
+					if (!this.mIsHoldingRounds) {
+						this.startRound();
+					}
+					return true;
+				}
+				continue;
+			}
+			this.advanceCycle(cycle, newCell);
+			if (this.mRewind != null) {
+				this.mRewind.recordMove(cycle, newCell, this.mDirections[cycle]);
+			}
+			this.mScheduler.schedule(cycle, dueTime + this.mPeriods[cycle]);
+		}
+		return false;
+	}
+	
+	/**
+	 * Keep the recording of a round which just ended and stop any playback.
+	 */
+	private void endRecording() {
+		if (this.mIsRecordingRound) {
+			this.mRecording.finish(this.mTicks);
+			final Recording recording = this.mLastRecording;
+			this.mLastRecording = this.mRecording;
+			this.mRecording = recording;
+			this.mIsRecordingRound = false;
+		}
+		if (this.mPlayback != null) {
+			if (this.mPlaybackTurn != this.mPlayback.getTurnCount()) {
+				throw new IllegalStateException("Playback ended before the recording.");
+			}
+			this.mPlayback = null;
+		}
+	}
+	
+	/**
+	 * Iterate every cycle many times without rendering.
+	 * 
+	 * @param ticks Number of ticks to advance.
+	 * @return Number of rounds which ended along the way.
+	 */
+	public int advance(final int ticks) {
+		int rounds = 0;
+		for (int i = 0; i < ticks; i++) {
+			if (this.tick()) {
+				rounds += 1;
+			}
+		}
+		return rounds;
+	}
+	
+	/**
+	 * Test if a cell collides with a wall or any trail.
+	 * 
+	 * @param testCell Board index to test.
+	 * @return Whether or not the cell collides.
+	 */
+	private boolean isCollision(final int testCell) {
+		//Trails are recorded on the board so this is a single lookup
+		return !this.isValidPosition(testCell);
+	}
+	
+	/**
+	 * Follow the user if they are steering, otherwise let the cycle's AI decide.
+	 * Wandering tries to go straight, otherwise makes a valid turn and, on occasion, randomizes!
+	 * 
+	 * @param cycle Cycle number.
+	 */
+	private void determineNextDirection(final int cycle) {
+		final int head = this.mHeads[cycle];
+		final int direction = this.mDirections[cycle];
+		final boolean isSteered = (cycle == Simulation.PLAYER) && (this.mWantsToGo != Simulation.DIRECTION_NONE);
+		
+		//Try the user direction first
+		if (isSteered && !this.isCollision(this.move(head, this.mWantsToGo))) {
+			//Follow user direction and GTFO
+			this.mDirections[cycle] = this.mWantsToGo;
+			return;
+		}
+		
+		int nextDirection;
+		final Strategy strategy = this.mStrategies[this.mAis[cycle]];
+		if (Simulation.isSearchingAi(this.mAis[cycle])) {
+			//Split what is left so the first decision cannot take the whole tick
+			final long now = System.nanoTime();
+			this.mDeadline = now + (Math.max(this.mTickDeadline - now, 0) / Math.max(this.mSearchesDue, 1));
+			if (this.mSearchesDue > 0) {
+				this.mSearchesDue -= 1;
+			}
+		}
+		if (strategy != null) {
+			nextDirection = strategy.chooseDirection(cycle);
+		} else if (!this.isCollision(this.move(head, direction)) && (this.mRandom.nextInt(Simulation.RANDOM_TURN_MULTIPLIER) != 0)) {
+			//favor current direction most of the time
+			nextDirection = direction;
+		} else {
+			nextDirection = this.pickDirection(this.getLegalDirections(head));
+		}
+		
+		//If the wants-to-go direction exists and the AI forced us to change direction then wants-to-go direction
+		//is impossible and should be cleared
+		if (isSteered && (direction != nextDirection)) {
+			this.mWantsToGo = Simulation.DIRECTION_NONE;
+		}
+		
+		this.mDirections[cycle] = nextDirection;
+	}
+	
+	/**
+	 * Take the next direction from the recording being played back.
+	 * 
+	 * @param cycle Cycle number.
+	 */
+	private void playNextDirection(final int cycle) {
+		if (this.mPlaybackTurn == this.mPlayback.getTurnCount()) {
+			throw new IllegalStateException("Playback outlasted the recording.");
+		}
+		this.mDirections[cycle] = this.mPlayback.getTurn(this.mPlaybackTurn);
+		this.mPlaybackTurn += 1;
+	}
+	
+	/**
+	 * Determine which directions can be traveled from a cell without a collision.
+	 * 
+	 * @param cell Board index.
+	 * @return Bit mask where bit <code>n</code> is set if the direction with ordinal <code>n</code> is legal.
+	 */
+	private int getLegalDirections(final int cell) {
+		int mask = 0;
+		for (int i = 0; i < Simulation.DIRECTIONS.length; i++) {
+			if (!this.isCollision(cell + this.mDirectionDeltas[i])) {
+				mask |= (1 << i);
+			}
+		}
+		return mask;
+	}
+	
+	/**
+	 * Update the cell one step in the direction specified.
+	 * 
+	 * @param cell Board index of original coordinates.
+	 * @param direction Direction ordinal in which to move the cell, or {@link #DIRECTION_NONE}.
+	 * @return New board index.
+	 */
+	private int move(final int cell, final int direction) {
+		if (direction == Simulation.DIRECTION_NONE) {
+			return cell;
+		}
+		return cell + this.mDirectionDeltas[direction];
+	}
+	
+	/**
+	 * Pick a random direction from a legal direction mask.
+	 * 
+	 * @param mask Legal direction mask as returned by {@link #getLegalDirections(int)}.
+	 * @return Ordinal of a random legal direction, or of {@link Direction#NORTH} if there are none.
+	 */
+	private int pickDirection(int mask) {
+		if (mask == 0) {
+			return Direction.NORTH.ordinal();
+		}
+		
+		//Skip over a random number of set bits
+		for (int skip = this.mRandom.nextInt(Integer.bitCount(mask)); skip > 0; skip--) {
+			mask &= (mask - 1);
+		}
+		return Integer.numberOfTrailingZeros(mask);
+	}
+}
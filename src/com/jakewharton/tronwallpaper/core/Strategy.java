@@ -0,0 +1,19 @@
+package com.jakewharton.tronwallpaper.core;
+
+/**
+ * Decides where a light cycle goes next in place of the default wandering.
+ * 
+ * An instance belongs to a single simulation and is only ever called from
+ * its ticking thread, so it may keep scratch space between decisions.
+ * 
+ * @author Jake Wharton
+ */
+/*package*/interface Strategy {
+	/**
+	 * Choose the direction a cycle which is still riding moves in next.
+	 * 
+	 * @param cycle Cycle number.
+	 * @return Direction ordinal. A move into a wall or trail crashes the cycle.
+	 */
+	int chooseDirection(int cycle);
+}
@@ -0,0 +1,253 @@
+package com.jakewharton.tronwallpaper.core;
+
+import java.util.Arrays;
+
+/**
+ * Picks the move which leaves a cycle controlling the most of the board.
+ * 
+ * Each legal move is scored with a breadth-first search from the cell it
+ * leads to and from the heads of every other cycle at once. A blank cell
+ * belongs to whoever reaches it first and to nobody on a tie, so the score
+ * is the cells claimed by the cycle less the cells claimed by the rest.
+ * 
+ * The queue and per-cell distances are allocated once, sized to the
+ * board, and cells are marked visited with a stamp which changes every
+ * search so nothing needs to be cleared between searches. The cells a
+ * search may visit are its share of a fixed number per tick, so the cost
+ * of a tick does not grow with the number of cycles deciding in it.
+ * 
+ * @author Jake Wharton
+ */
+/*package*/final class TerritoryStrategy implements Strategy {
+	/**
+	 * Most cells a single search visits. Covers the whole of the largest
+	 * layout at normal resolution and bounds a decision on denser boards.
+	 */
+	private static final int MAX_VISITS = 1 << 16;
+	
+	/**
+	 * Most cells the searches of a single tick visit between them. Split
+	 * evenly between the decisions due in the tick and the moves each one
+	 * scores, so a tick in which every cycle decides still fits in a frame.
+	 */
+	private static final int TICK_VISITS = 1 << 18;
+	
+	/**
+	 * Number of directions a cycle can move in.
+	 */
+	private static final int DIRECTION_COUNT = Direction.values().length;
+	
+	/**
+	 * Owner of a cell reached first by the cycle being scored.
+	 */
+	private static final byte OWNER_SELF = 0;
+	
+	/**
+	 * Owner of a cell reached first by any other cycle.
+	 */
+	private static final byte OWNER_OTHERS = 1;
+	
+	/**
+	 * Owner of a cell reached at the same time by both sides.
+	 */
+	private static final byte OWNER_NEUTRAL = 2;
+	
+	
+	
+	/**
+	 * Simulation whose cycles are being decided for.
+	 */
+	private final Simulation mSimulation;
+	
+	/**
+	 * Board indices waiting to be expanded, in the order they were reached.
+	 */
+	private final int[] mQueue;
+	
+	/**
+	 * Number of steps from the nearest source to each board index.
+	 */
+	private final int[] mDistances;
+	
+	/**
+	 * Owner of each board index.
+	 */
+	private final byte[] mOwners;
+	
+	/**
+	 * Search number in which each board index was last reached.
+	 */
+	private final int[] mStamps;
+	
+	/**
+	 * Number of the current search.
+	 */
+	private int mStamp;
+	
+	/**
+	 * Heads of the other cycles which are still riding.
+	 */
+	private final int[] mOthers;
+	
+	/**
+	 * Board index offset of a single step in each direction indexed by ordinal.
+	 */
+	private final int[] mDeltas;
+	
+	
+	
+	/**
+	 * Create a strategy with scratch space for a simulation's board.
+	 * 
+	 * @param simulation Simulation.
+	 */
+	/*package*/TerritoryStrategy(final Simulation simulation) {
+		final int cells = simulation.getBoard().length;
+		this.mSimulation = simulation;
+		this.mQueue = new int[Math.min(cells, TerritoryStrategy.MAX_VISITS)];
+		this.mDistances = new int[cells];
+		this.mOwners = new byte[cells];
+		this.mStamps = new int[cells];
+		this.mOthers = new int[Simulation.MAX_CYCLES];
+		this.mDeltas = new int[TerritoryStrategy.DIRECTION_COUNT];
+		for (int direction = 0; direction < this.mDeltas.length; direction++) {
+			this.mDeltas[direction] = simulation.getDirectionDelta(direction);
+		}
+	}
+	
+	
+	
+	public int chooseDirection(final int cycle) {
+		final Simulation simulation = this.mSimulation;
+		final byte[] board = simulation.getBoard();
+		final int head = simulation.getHead(cycle);
+		final int current = simulation.getDirectionOrdinal(cycle);
+		
+		//A lone legal move needs no search
+		int legal = 0;
+		int onlyDirection = (current < 0) ? 0 : current;
+		for (int direction = 0; direction < TerritoryStrategy.DIRECTION_COUNT; direction++) {
+			if (board[head + this.mDeltas[direction]] == Simulation.CELL_BLANK) {
+				legal += 1;
+				onlyDirection = direction;
+			}
+		}
+		if (legal <= 1) {
+			return onlyDirection;
+		}
+		
+		final int visits = Math.min(this.mQueue.length, TerritoryStrategy.TICK_VISITS / (simulation.getTerritoryDue() * legal));
+		int others = 0;
+		for (int other = 0; other < simulation.getCycleCount(); other++) {
+			if ((other != cycle) && simulation.isAlive(other)) {
+				this.mOthers[others++] = simulation.getHead(other);
+			}
+		}
+		
+		//Ties go to going straight, then to the lowest ordinal
+		int best = onlyDirection;
+		int bestScore = Integer.MIN_VALUE;
+		for (int direction = 0; direction < TerritoryStrategy.DIRECTION_COUNT; direction++) {
+			final int next = head + this.mDeltas[direction];
+			if (board[next] != Simulation.CELL_BLANK) {
+				continue;
+			}
+			final int score = this.evaluate(board, next, this.mOthers, others, visits);
+			if ((score > bestScore) || ((score == bestScore) && (direction == current))) {
+				best = direction;
+				bestScore = score;
+			}
+		}
+		return best;
+	}
+	
+	/**
+	 * Score a position by the territory of one cycle against every other.
+	 * 
+	 * @param board Board cells.
+	 * @param self Board index of the cycle being scored.
+	 * @param others Board indices of the heads of the other cycles.
+	 * @param otherCount Number of heads in <code>others</code>.
+	 * @return Cells reached first by <code>self</code> less those reached first by the others.
+	 */
+	/*package*/int evaluate(final byte[] board, final int self, final int[] others, final int otherCount) {
+		return this.evaluate(board, self, others, otherCount, this.mQueue.length);
+	}
+	
+	/**
+	 * Score a position by the territory of one cycle against every other,
+	 * visiting a limited number of cells.
+	 * 
+	 * @param board Board cells.
+	 * @param self Board index of the cycle being scored.
+	 * @param others Board indices of the heads of the other cycles.
+	 * @param otherCount Number of heads in <code>others</code>.
+	 * @param visits Most cells to visit, up to the length of the queue.
+	 * @return Cells reached first by <code>self</code> less those reached first by the others.
+	 */
+	private int evaluate(final byte[] board, final int self, final int[] others, final int otherCount, final int visits) {
+		if (this.mStamp == Integer.MAX_VALUE) {
+			//Stamps wrapped so start afresh
+			Arrays.fill(this.mStamps, 0);
+			this.mStamp = 0;
+		}
+		final int stamp = ++this.mStamp;
+		final int[] queue = this.mQueue;
+		final int[] distances = this.mDistances;
+		final byte[] owners = this.mOwners;
+		final int[] stamps = this.mStamps;
+		final int[] deltas = this.mDeltas;
+		
+		int first = 0;
+		int last = 0;
+		stamps[self] = stamp;
+		distances[self] = 0;
+		owners[self] = TerritoryStrategy.OWNER_SELF;
+		queue[last++] = self;
+		for (int i = 0; i < otherCount; i++) {
+			final int cell = others[i];
+			if (stamps[cell] != stamp) {
+				stamps[cell] = stamp;
+				distances[cell] = 0;
+				owners[cell] = TerritoryStrategy.OWNER_OTHERS;
+				queue[last++] = cell;
+			}
+		}
+		
+		int mine = 0;
+		int theirs = 0;
+		while (first < last) {
+			final int cell = queue[first++];
+			final int distance = distances[cell];
+			final byte owner = owners[cell];
+			
+			//Ties for a cell are settled before any cell at its distance is expanded
+			if (distance > 0) {
+				if (owner == TerritoryStrategy.OWNER_SELF) {
+					mine += 1;
+				} else if (owner == TerritoryStrategy.OWNER_OTHERS) {
+					theirs += 1;
+				}
+			}
+			
+			for (int direction = 0; direction < deltas.length; direction++) {
+				final int next = cell + deltas[direction];
+				if (board[next] != Simulation.CELL_BLANK) {
+					continue;
+				}
+				if (stamps[next] != stamp) {
+					if (last >= visits) {
+						continue;
+					}
+					stamps[next] = stamp;
+					distances[next] = distance + 1;
+					owners[next] = owner;
+					queue[last++] = next;
+				} else if ((distances[next] == (distance + 1)) && (owners[next] != owner)) {
+					owners[next] = TerritoryStrategy.OWNER_NEUTRAL;
+				}
+			}
+		}
+		return mine - theirs;
+	}
+}
@@ -0,0 +1,226 @@
+package com.jakewharton.tronwallpaper.core;
+
+/**
+ * What changed on the board in the most recent tick.
+ * 
+ * Events are published by {@link Simulation#tick()} into storage which is
+ * allocated up front and reused every tick. Each tick starts a new batch,
+ * as does any change to the board made outside of a tick. Consumers which
+ * read every batch can do work proportional to what changed rather than
+ * to the size of the board or trails. A consumer which misses a batch, as
+ * told by {@link #getSequence()}, must rebuild from the simulation's state.
+ * 
+ * @author Jake Wharton
+ */
+public final class TickEvents {
+	/**
+	 * A cycle claimed a cell, either by moving onto it or by starting a round on it.
+	 */
+	public static final int CLAIM = 0;
+	
+	/**
+	 * The oldest cell of a trail was freed.
+	 */
+	public static final int RELEASE = 1;
+	
+	/**
+	 * A cycle changed direction.
+	 */
+	public static final int TURN = 2;
+	
+	/**
+	 * A cycle crashed into a cell and is out for the rest of the round.
+	 */
+	public static final int CRASH = 3;
+	
+	/**
+	 * The board changed in a way which is not described cell by cell, such
+	 * as a new round clearing every trail. Consumers must rebuild from the
+	 * simulation's state, which already includes any events which follow.
+	 */
+	public static final int RESET = 4;
+	
+	/**
+	 * Every direction indexed by ordinal.
+	 */
+	private static final Direction[] DIRECTIONS = Direction.values();
+	
+	/**
+	 * Number of moves a cycle can make in a tick at the top speed.
+	 */
+	private static final int MAX_MOVES = (int)Math.ceil(Simulation.MAX_SPEED);
+	
+	/**
+	 * Number of events a single move can publish: a turn, a release and a claim.
+	 */
+	private static final int EVENTS_PER_MOVE = 3;
+	
+	
+	
+	/**
+	 * Number of cycles events are published for.
+	 */
+	private final int mCycleCount;
+	
+	/**
+	 * Type of each event.
+	 */
+	private final byte[] mTypes;
+	
+	/**
+	 * Cycle number of each event, or -1.
+	 */
+	private final byte[] mCycles;
+	
+	/**
+	 * Direction ordinal of each event, or -1.
+	 */
+	private final byte[] mDirections;
+	
+	/**
+	 * Board index of each event, or -1.
+	 */
+	private final int[] mCells;
+	
+	/**
+	 * Number of events in the current batch.
+	 */
+	private int mCount;
+	
+	/**
+	 * Number of batches started.
+	 */
+	private long mSequence;
+	
+	
+	
+	/**
+	 * Create storage for the events of a single tick.
+	 * 
+	 * @param cycleCount Number of cycles in the simulation which publishes them.
+	 */
+	public TickEvents(final int cycleCount) {
+		this.mCycleCount = cycleCount;
+		
+		//Every cycle moving as often as it can, then a new round starting
+		final int capacity = (cycleCount * TickEvents.MAX_MOVES * TickEvents.EVENTS_PER_MOVE) + 1 + cycleCount;
+		this.mTypes = new byte[capacity];
+		this.mCycles = new byte[capacity];
+		this.mDirections = new byte[capacity];
+		this.mCells = new int[capacity];
+	}
+	
+	
+	
+	/**
+	 * Get the number of cycles events are published for.
+	 * 
+	 * @return Cycle count.
+	 */
+	public int getCycleCount() {
+		return this.mCycleCount;
+	}
+	
+	/**
+	 * Get the number of the current batch. It increases by exactly one
+	 * every batch so a consumer can tell whether it missed any.
+	 * 
+	 * @return Batch number.
+	 */
+	public long getSequence() {
+		return this.mSequence;
+	}
+	
+	/**
+	 * Get the number of events in the current batch.
+	 * 
+	 * @return Event count.
+	 */
+	public int getCount() {
+		return this.mCount;
+	}
+	
+	/**
+	 * Get the type of an event.
+	 * 
+	 * @param event Event number, less than {@link #getCount()}.
+	 * @return One of {@link #CLAIM}, {@link #RELEASE}, {@link #TURN}, {@link #CRASH} or {@link #RESET}.
+	 */
+	public int getType(final int event) {
+		return this.mTypes[event];
+	}
+	
+	/**
+	 * Get the cycle an event happened to.
+	 * 
+	 * @param event Event number, less than {@link #getCount()}.
+	 * @return Cycle number, or -1 for {@link #RESET}.
+	 */
+	public int getCycle(final int event) {
+		return this.mCycles[event];
+	}
+	
+	/**
+	 * Get the cell an event happened on.
+	 * 
+	 * @param event Event number, less than {@link #getCount()}.
+	 * @return Board index, or -1 for {@link #TURN} and {@link #RESET}.
+	 */
+	public int getCell(final int event) {
+		return this.mCells[event];
+	}
+	
+	/**
+	 * Get the direction of the cycle when an event happened.
+	 * 
+	 * @param event Event number, less than {@link #getCount()}.
+	 * @return Direction, or <code>null</code> if there is none.
+	 */
+	public Direction getDirection(final int event) {
+		final int direction = this.mDirections[event];
+		return (direction < 0) ? null : TickEvents.DIRECTIONS[direction];
+	}
+	
+	/**
+	 * Test whether the current batch has a {@link #RESET}. It is always the
+	 * first event of a batch published outside of a tick.
+	 * 
+	 * @return Boolean.
+	 */
+	public boolean hasReset() {
+		for (int event = 0; event < this.mCount; event++) {
+			if (this.mTypes[event] == TickEvents.RESET) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Forget the current batch and start the next one.
+	 */
+	/*package*/void begin() {
+		this.mCount = 0;
+		this.mSequence += 1;
+	}
+	
+	/**
+	 * Add an event to the current batch.
+	 * 
+	 * @param type Event type.
+	 * @param cycle Cycle number, or -1.
+	 * @param cell Board index, or -1.
+	 * @param direction Direction ordinal, or -1.
+	 */
+	/*package*/void add(final int type, final int cycle, final int cell, final int direction) {
+		final int event = this.mCount;
+		if (event == this.mTypes.length) {
+			throw new IllegalStateException("Tick published more events than cycles at the top speed can.");
+		}
+		this.mTypes[event] = (byte)type;
+		this.mCycles[event] = (byte)cycle;
+		this.mCells[event] = cell;
+		this.mDirections[event] = (byte)direction;
+		this.mCount = event + 1;
+	}
+}